@@ -0,0 +1,133 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.varia.NullAppender;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IArchimateRelationship;
+import com.archimatetool.model.IFolder;
+import com.archimatetool.model.IProperties;
+import com.archimatetool.model.IProperty;
+
+/**
+ * Synthetic in-memory model and canned ServiceNow records used by the benchmarks<br>
+ * <br>
+ * The model holds the requested number of concepts: two thirds of Nodes, spread in 100 folders of the technology folder, and one third of
+ * serving relationships between them. Each concept has got 3 properties, like the ones set by the sample INI file.
+ */
+public class MyBenchmarkModel {
+	static final int FOLDERS = 100;
+	static final int PROPERTIES = 3;
+
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	// canned records, as they are sent by ServiceNow when the reference links are not excluded
+	static final String ELEMENT_RECORD = "{\"sys_id\":\"id-%d\",\"name\":\"server %d\",\"short_description\":\"synthetic server\",\"sys_class_name\":\"cmdb_ci_linux_server\","
+			+ "\"operational_status\":\"1\",\"sys_updated_on\":\"2020-12-18 10:00:00\","
+			+ "\"company\":{\"link\":\"https://localhost/api/now/table/core_company/company-1\",\"value\":\"company-1\"}}";
+	static final String RELATION_RECORD = "{\"sys_id\":\"id-%d\",\"parent\":{\"link\":\"https://localhost/api/now/table/cmdb_ci/id-%d\",\"value\":\"id-%d\"},"
+			+ "\"child\":{\"link\":\"https://localhost/api/now/table/cmdb_ci/id-%d\",\"value\":\"id-%d\"},"
+			+ "\"type\":{\"link\":\"https://localhost/api/now/table/cmdb_rel_type/type-1\",\"value\":\"type-1\"}}";
+	static final String COMPANY_RECORD = "{\"sys_id\":\"company-1\",\"name\":\"ACME\",\"sys_updated_on\":\"2020-12-18 10:00:00\"}";
+
+	IArchimateModel model;
+	int elements;
+	int relations;
+
+	MyImporter importer;
+
+	public MyBenchmarkModel(int concepts) {
+		// the benchmarks measure the code, not the logging
+		Logger.getRootLogger().removeAllAppenders();
+		Logger.getRootLogger().addAppender(new NullAppender());
+		Logger.getRootLogger().setLevel(Level.INFO);
+
+		this.model = IArchimateFactory.eINSTANCE.createArchimateModel();
+		this.model.setDefaults();
+		this.model.setName("benchmark model");
+
+		this.importer = new MyImporter();
+		this.importer.logger = Logger.getLogger("SNowPlugin");
+
+		IFolder technologyFolder = this.model.getFolder(FolderType.TECHNOLOGY);
+		IFolder[] folders = new IFolder[FOLDERS];
+		for ( int i = 0; i < FOLDERS; ++i ) {
+			folders[i] = IArchimateFactory.eINSTANCE.createFolder();
+			folders[i].setName("folder " + i);
+			technologyFolder.getFolders().add(folders[i]);
+		}
+
+		this.elements = Math.max(2, (concepts * 2) / 3);
+		this.relations = concepts - this.elements;
+
+		IArchimateElement[] nodes = new IArchimateElement[this.elements];
+		for ( int i = 0; i < this.elements; ++i ) {
+			nodes[i] = (IArchimateElement)IArchimateFactory.eINSTANCE.create(this.importer.getEClass("Node"));
+			nodes[i].setId("id-" + i);
+			nodes[i].setName("server " + i);
+			addProperties(nodes[i], i);
+			folders[i % FOLDERS].getElements().add(nodes[i]);
+		}
+
+		IFolder relationsFolder = this.model.getFolder(FolderType.RELATIONS);
+		for ( int i = 0; i < this.relations; ++i ) {
+			IArchimateRelationship relation = (IArchimateRelationship)IArchimateFactory.eINSTANCE.create(this.importer.getEClass("ServingRelationship"));
+			relation.setId("id-" + (this.elements + i));
+			relation.connect(nodes[i % this.elements], nodes[(i + 1) % this.elements]);
+			addProperties(relation, i);
+			relationsFolder.getElements().add(relation);
+		}
+
+		// the importer is set up as it is during an import
+		this.importer.iniProperties = new MySortedProperties(this.importer.logger);
+		this.importer.modelIndex = new MyModelIndex(this.model);
+		this.importer.folderIndex = new MyFolderIndex();
+		this.importer.referenceLinkCache = new MyReferenceCache();
+		this.importer.referenceLinkCache.setLogger(this.importer.logger);
+		this.importer.referenceLinkCache.put("https://localhost/api/now/table/core_company/company-1", parse(COMPANY_RECORD));
+	}
+
+	static void addProperties(IProperties concept, int i) {
+		for ( int p = 0; p < PROPERTIES; ++p ) {
+			IProperty property = IArchimateFactory.eINSTANCE.createProperty();
+			property.setKey("property " + p);
+			property.setValue("value " + i + "." + p);
+			concept.getProperties().add(property);
+		}
+	}
+
+	/**
+	 * @return the canned record of an element that already exists in the model
+	 */
+	JsonNode getElementRecord(int i) {
+		int id = i % this.elements;
+		return parse(String.format(ELEMENT_RECORD, Integer.valueOf(id), Integer.valueOf(id)));
+	}
+
+	/**
+	 * @return the canned record of a relation that already exists in the model (or of a new relation if the model has got none)
+	 */
+	JsonNode getRelationRecord(int i) {
+		int relation = (this.relations == 0) ? 0 : i % this.relations;
+		int source = relation % this.elements;
+		int target = (relation + 1) % this.elements;
+		int id = this.elements + relation;
+		return parse(String.format(RELATION_RECORD, Integer.valueOf(id), Integer.valueOf(source), Integer.valueOf(source), Integer.valueOf(target), Integer.valueOf(target)));
+	}
+
+	static JsonNode parse(String json) {
+		try {
+			return mapper.readTree(json);
+		} catch (IOException e) {
+			throw new IllegalStateException("Invalid canned record", e);
+		}
+	}
+}
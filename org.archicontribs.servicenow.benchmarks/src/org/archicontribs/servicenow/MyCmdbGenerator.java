@@ -0,0 +1,261 @@
+package org.archicontribs.servicenow;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded generator of a synthetic ServiceNow CMDB<br>
+ * <br>
+ * The records are not stored: each record is computed from the seed and from its index, so that millions of CIs and relations can be served
+ * without using memory, and that the same seed always gives the same CMDB.<br>
+ * <br>
+ * The distributions try to look like a real CMDB:
+ *    - the CIs are spread over a few tables, most of them being servers and applications
+ *    - about 95% of the CIs are operational
+ *    - a few companies own most of the CIs
+ *    - a few relation types are used by most of the relations, and a few CIs (the hubs) are the parent of most of the relations
+ *    - the sys_updated_on dates are spread over the two years before 2021-01-01
+ * <br>
+ * The sys_ids are 32 hexadecimal digits, like the ServiceNow ones: the kind of record (CI, relation, company, relation type) followed by its index.
+ */
+public class MyCmdbGenerator {
+	static final String[] CI_TABLES = {"cmdb_ci_linux_server", "cmdb_ci_win_server", "cmdb_ci_esx_server", "cmdb_ci_appl", "cmdb_ci_db_instance", "cmdb_ci_service"};
+	static final double[] CI_WEIGHTS = {0.30, 0.20, 0.05, 0.25, 0.15, 0.05};
+
+	// name, parent descriptor and child descriptor of the relation types
+	static final String[][] RELATION_TYPES = {
+			{"Depends on::Used by", "Depends on", "Used by"},
+			{"Runs on::Runs", "Runs on", "Runs"},
+			{"Hosted on::Hosts", "Hosted on", "Hosts"},
+			{"Contains::Contained by", "Contains", "Contained by"},
+			{"Connects to::Connected by", "Connects to", "Connected by"},
+			{"Members::Member of", "Members", "Member of"}};
+	static final double[] RELATION_WEIGHTS = {0.40, 0.25, 0.15, 0.10, 0.07, 0.03};
+
+	static final int COMPANIES = 50;
+
+	static final int KIND_CI = 1;
+	static final int KIND_RELATION = 2;
+	static final int KIND_COMPANY = 3;
+	static final int KIND_RELATION_TYPE = 4;
+
+	static final long START_DATE = LocalDateTime.of(2019, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+	static final long DATE_RANGE = 2 * 365 * 24 * 3600L;
+	static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	long seed;
+	int ciCount;
+	int relationCount;
+
+	// index of the first record of each CI table and of each relation type (the last value is the total number of records)
+	int[] ciTableStart;
+	int[] relationTypeStart;
+
+	/**
+	 * Reference to a record of another table, that is sent as a link object or as a plain sys_id depending on sysparm_exclude_reference_link
+	 */
+	static class Reference {
+		String table;
+		String sysId;
+
+		Reference(String table, String sysId) {
+			this.table = table;
+			this.sysId = sysId;
+		}
+	}
+
+	public MyCmdbGenerator(long seed, int ciCount, int relationCount) {
+		this.seed = seed;
+		this.ciCount = Math.max(CI_TABLES.length, ciCount);
+		this.relationCount = Math.max(0, relationCount);
+		this.ciTableStart = split(this.ciCount, CI_WEIGHTS);
+		this.relationTypeStart = split(this.relationCount, RELATION_WEIGHTS);
+	}
+
+	/**
+	 * Splits count records into contiguous ranges according to the weights
+	 */
+	static int[] split(int count, double[] weights) {
+		int[] start = new int[weights.length + 1];
+		double cumulated = 0;
+		for ( int i = 0; i < weights.length; ++i ) {
+			start[i] = (int)(count * cumulated);
+			cumulated += weights[i];
+		}
+		start[weights.length] = count;
+		return start;
+	}
+
+	static String getSysId(int kind, long index) {
+		return String.format("%08x%024x", Integer.valueOf(kind), Long.valueOf(index));
+	}
+
+	/**
+	 * @return the kind of record encoded in the sys_id, or -1 if the sys_id has not been generated by this class
+	 */
+	static int getKind(String sysId) {
+		if ( (sysId == null) || (sysId.length() != 32) )
+			return -1;
+		try {
+			return Integer.parseInt(sysId.substring(0, 8), 16);
+		} catch ( @SuppressWarnings("unused") NumberFormatException ign ) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the index encoded in the sys_id, or -1 if the sys_id has not been generated by this class
+	 */
+	static long getIndex(String sysId) {
+		if ( getKind(sysId) == -1 )
+			return -1;
+		try {
+			return Long.parseLong(sysId.substring(8), 16);
+		} catch ( @SuppressWarnings("unused") NumberFormatException ign ) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the kind of the records of a table, or -1 if the table is unknown
+	 */
+	static int getTableKind(String table) {
+		if ( table.equals("cmdb_rel_ci") )
+			return KIND_RELATION;
+		if ( table.equals("core_company") )
+			return KIND_COMPANY;
+		if ( table.equals("cmdb_rel_type") )
+			return KIND_RELATION_TYPE;
+		if ( table.equals("cmdb_ci") || (getCiTable(table) != -1) )
+			return KIND_CI;
+		return -1;
+	}
+
+	static int getCiTable(String table) {
+		for ( int t = 0; t < CI_TABLES.length; ++t )
+			if ( CI_TABLES[t].equals(table) )
+				return t;
+		return -1;
+	}
+
+	/**
+	 * @return the first index (inclusive) and the last index (exclusive) of the records of a table, or null if the table is unknown
+	 */
+	int[] getRange(String table) {
+		switch ( getTableKind(table) ) {
+			case KIND_RELATION:      return new int[] {0, this.relationCount};
+			case KIND_COMPANY:       return new int[] {0, COMPANIES};
+			case KIND_RELATION_TYPE: return new int[] {0, RELATION_TYPES.length};
+			case KIND_CI:
+				int t = getCiTable(table);
+				return (t == -1) ? new int[] {0, this.ciCount} : new int[] {this.ciTableStart[t], this.ciTableStart[t + 1]};
+			default:                 return null;
+		}
+	}
+
+	/**
+	 * @return the first index (inclusive) and the last index (exclusive) of the relations of a relation type
+	 */
+	int[] getRelationTypeRange(int type) {
+		return new int[] {this.relationTypeStart[type], this.relationTypeStart[type + 1]};
+	}
+
+	/**
+	 * @return the sys_ids of the relation types, to be used in the INI file (archi.relations.&lt;sys_id&gt;.archi_class)
+	 */
+	public String[] getRelationTypeIds() {
+		String[] ids = new String[RELATION_TYPES.length];
+		for ( int i = 0; i < ids.length; ++i )
+			ids[i] = getSysId(KIND_RELATION_TYPE, i);
+		return ids;
+	}
+
+	SplittableRandom getRandom(int kind, long index) {
+		return new SplittableRandom(this.seed * 31 + kind * 0x9E3779B97F4A7C15L + index);
+	}
+
+	static String getDate(SplittableRandom random) {
+		return LocalDateTime.ofEpochSecond(START_DATE + random.nextLong(DATE_RANGE), 0, ZoneOffset.UTC).format(dateFormatter);
+	}
+
+	/**
+	 * @return the record of the given kind and index, or null if it does not exist
+	 */
+	Map<String, Object> getRecord(int kind, long index) {
+		switch ( kind ) {
+			case KIND_CI:            return (index >= 0 && index < this.ciCount) ? getCi((int)index) : null;
+			case KIND_RELATION:      return (index >= 0 && index < this.relationCount) ? getRelation((int)index) : null;
+			case KIND_COMPANY:       return (index >= 0 && index < COMPANIES) ? getCompany((int)index) : null;
+			case KIND_RELATION_TYPE: return (index >= 0 && index < RELATION_TYPES.length) ? getRelationType((int)index) : null;
+			default:                 return null;
+		}
+	}
+
+	Map<String, Object> getCi(int index) {
+		SplittableRandom random = getRandom(KIND_CI, index);
+		int table = 0;
+		while ( index >= this.ciTableStart[table + 1] )
+			++table;
+
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("sys_id", getSysId(KIND_CI, index));
+		record.put("name", CI_TABLES[table].substring(8) + "-" + index);
+		record.put("short_description", "Synthetic " + CI_TABLES[table].substring(8).replace('_', ' ') + " number " + index);
+		record.put("sys_class_name", CI_TABLES[table]);
+		double status = random.nextDouble();
+		record.put("operational_status", status < 0.95 ? "1" : (status < 0.98 ? "2" : "6"));
+		record.put("install_status", status < 0.95 ? "1" : "7");
+		// the companies follow a power law: the first ones own most of the CIs
+		double company = random.nextDouble();
+		record.put("company", new Reference("core_company", getSysId(KIND_COMPANY, (int)(COMPANIES * company * company * company))));
+		record.put("ip_address", "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(1, 255));
+		record.put("sys_created_by", "admin");
+		record.put("sys_created_on", getDate(random));
+		record.put("sys_updated_by", "discovery");
+		record.put("sys_updated_on", getDate(random));
+		return record;
+	}
+
+	Map<String, Object> getRelation(int index) {
+		SplittableRandom random = getRandom(KIND_RELATION, index);
+		int type = 0;
+		while ( index >= this.relationTypeStart[type + 1] )
+			++type;
+
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("sys_id", getSysId(KIND_RELATION, index));
+		record.put("sys_class_name", "cmdb_rel_ci");
+		// a few CIs are the parent of most of the relations, the children are spread over all the CIs
+		double parent = random.nextDouble();
+		record.put("parent", new Reference("cmdb_ci", getSysId(KIND_CI, (long)(this.ciCount * parent * parent))));
+		record.put("child", new Reference("cmdb_ci", getSysId(KIND_CI, random.nextInt(this.ciCount))));
+		record.put("type", new Reference("cmdb_rel_type", getSysId(KIND_RELATION_TYPE, type)));
+		record.put("connection_strength", random.nextDouble() < 0.9 ? "always" : "occasionally");
+		record.put("operational_status", random.nextDouble() < 0.98 ? "1" : "2");
+		record.put("sys_created_on", getDate(random));
+		record.put("sys_updated_on", getDate(random));
+		return record;
+	}
+
+	static Map<String, Object> getCompany(int index) {
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("sys_id", getSysId(KIND_COMPANY, index));
+		record.put("name", "Company " + index);
+		record.put("sys_updated_on", "2019-01-01 00:00:00");
+		return record;
+	}
+
+	static Map<String, Object> getRelationType(int index) {
+		Map<String, Object> record = new LinkedHashMap<String, Object>();
+		record.put("sys_id", getSysId(KIND_RELATION_TYPE, index));
+		record.put("name", RELATION_TYPES[index][0]);
+		record.put("parent_descriptor", RELATION_TYPES[index][1]);
+		record.put("child_descriptor", RELATION_TYPES[index][2]);
+		record.put("sys_updated_on", "2019-01-01 00:00:00");
+		return record;
+	}
+}
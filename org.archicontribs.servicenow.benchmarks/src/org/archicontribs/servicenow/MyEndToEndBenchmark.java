@@ -0,0 +1,164 @@
+package org.archicontribs.servicenow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.varia.NullAppender;
+import org.codehaus.jackson.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * End-to-end benchmarks of the import, against a local ServiceNow stand-in (cf. MyServiceNowStandIn) that serves a synthetic CMDB<br>
+ * <br>
+ * Each operation downloads the whole CMDB, so the score is the time needed by one import.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MyEndToEndBenchmark {
+	static final long SEED = 42;
+
+	@Param({"10000", "100000", "1000000"})
+	int concepts;
+
+	// time in milliseconds needed by the stand-in to answer each request
+	@Param({"0", "50"})
+	int latency;
+
+	@Param({"1000", "10000"})
+	int pageSize;
+
+	@Param({"1", "4"})
+	int pageWorkers;
+
+	// whether the responses are asked compressed
+	@Param({"true", "false"})
+	boolean compression;
+
+	MyCmdbGenerator generator;
+	MyServiceNowStandIn standIn;
+	String site;
+	File iniFile;
+
+	@Setup
+	public void setup() throws IOException {
+		// the benchmarks measure the import, not the logging
+		Logger.getRootLogger().removeAllAppenders();
+		Logger.getRootLogger().addAppender(new NullAppender());
+		Logger.getRootLogger().setLevel(Level.INFO);
+
+		int elements = Math.max(MyCmdbGenerator.CI_TABLES.length, (this.concepts * 2) / 3);
+		this.generator = new MyCmdbGenerator(SEED, elements, this.concepts - elements);
+		this.standIn = new MyServiceNowStandIn(this.generator, SEED);
+		this.standIn.setLatency(this.latency);
+		this.site = this.standIn.start();
+
+		this.iniFile = File.createTempFile("snow-benchmark", ".ini");
+		try ( PrintWriter ini = new PrintWriter(new OutputStreamWriter(new FileOutputStream(this.iniFile), StandardCharsets.UTF_8)) ) {
+			ini.println("SNowPlugin.version = " + MyImporter.SNowPluginVersion);
+			ini.println("servicenow.site = " + this.site);
+			ini.println("servicenow.user = benchmark");
+			ini.println("servicenow.pass = benchmark");
+			ini.println("servicenow.page_size = " + this.pageSize);
+			ini.println("servicenow.page_workers = " + this.pageWorkers);
+			ini.println("servicenow.compression = " + this.compression);
+			ini.println("servicenow.reference_batch_size = 100");
+			// the model is not opened in Archi, so there is no UI thread to apply the changes on
+			ini.println("servicenow.bulk_apply = false");
+			ini.println("archi.elements.*.id = sys_id");
+			ini.println("archi.elements.*.name = name");
+			ini.println("archi.elements.*.documentation = short_description");
+			ini.println("archi.elements.*.folder = \"servicenow\"/sys_class_name");
+			ini.println("archi.elements.*.property.company = company#name");
+			ini.println("archi.elements.*.property.ip_address = ip_address");
+			for ( String table: MyCmdbGenerator.CI_TABLES ) {
+				ini.println("archi.elements." + table + ".snow_table = " + table);
+				ini.println("archi.elements." + table + ".archi_class = " + (table.endsWith("_server") || table.endsWith("_instance") ? "\"Node\"" : "\"ApplicationComponent\""));
+			}
+			ini.println("archi.relations.*.id = sys_id");
+			ini.println("archi.relations.*.name = type#name");
+			ini.println("archi.relations.*.folder = \"servicenow\"/type#name");
+			ini.println("archi.relations.*.property.connection_strength = connection_strength");
+			for ( String type: this.generator.getRelationTypeIds() )
+				ini.println("archi.relations." + type + ".archi_class = \"AssociationRelationship\"");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.standIn.stop();
+		this.iniFile.delete();
+	}
+
+	/**
+	 * Downloads and parses all the relations, without doing anything with them
+	 */
+	@Benchmark
+	public int getPagedRecords() throws MyException, IOException {
+		StringBuilder location = new StringBuilder(this.site);
+		location.append("/api/now/table/cmdb_rel_ci?sysparm_limit=").append(this.pageSize);
+		location.append("&sysparm_fields=operational_status,sys_id,sys_class_name,child,parent,type,connection_strength&sysparm_query=typeIN");
+		location.append(String.join(",", this.generator.getRelationTypeIds()));
+
+		try ( MyConnection connection = new MyConnection(null, 0, null, null) ) {
+			connection.setPaging(this.pageSize, this.pageWorkers);
+			connection.setCompression(this.compression);
+			return connection.getPagedRecords("relations", location.toString(), "benchmark", "benchmark", 0, new MyRecordHandler() {
+				int fields = 0;
+
+				@Override
+				public void start(int count) {
+					// nothing to do
+				}
+
+				@Override
+				public boolean record(JsonNode jsonNode) {
+					this.fields += jsonNode.size();
+					return true;
+				}
+
+				@Override
+				public void end() {
+					// nothing to do
+				}
+			});
+		}
+	}
+
+	/**
+	 * Imports the whole CMDB in an empty model
+	 */
+	@Benchmark
+	public IArchimateModel doImport() throws IOException {
+		IArchimateModel model = IArchimateFactory.eINSTANCE.createArchimateModel();
+		model.setDefaults();
+		model.setName("benchmark model");
+		if ( !new MyImporter().doImport(model, this.iniFile.getAbsolutePath()) )
+			throw new IllegalStateException("The import has failed.");
+		return model;
+	}
+}
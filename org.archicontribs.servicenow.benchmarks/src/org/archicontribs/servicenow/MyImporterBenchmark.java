@@ -0,0 +1,129 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.JsonNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateRelationship;
+
+/**
+ * Benchmarks of the mapping of the ServiceNow records and of their application to the model
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MyImporterBenchmark {
+	@Param({"10000", "100000", "1000000"})
+	int concepts;
+
+	MyBenchmarkModel benchmarkModel;
+	MyImporter importer;
+
+	// the records are parsed once, so that the benchmarks do not measure the JSON parser
+	static final int RECORDS = 1024;
+	JsonNode[] elementRecords = new JsonNode[RECORDS];
+	JsonNode[] relationRecords = new JsonNode[RECORDS];
+	IArchimateElement[] elements = new IArchimateElement[RECORDS];
+	int next = 0;
+	int newId = 0;
+
+	@Setup
+	public void setup() {
+		this.benchmarkModel = new MyBenchmarkModel(this.concepts);
+		this.importer = this.benchmarkModel.importer;
+		for ( int i = 0; i < RECORDS; ++i ) {
+			// the records are spread over the whole model
+			int index = (int)((long)i * this.concepts / RECORDS);
+			this.elementRecords[i] = this.benchmarkModel.getElementRecord(index);
+			this.relationRecords[i] = this.benchmarkModel.getRelationRecord(index);
+			this.elements[i] = (IArchimateElement)this.importer.modelIndex.getObjectByID(this.elementRecords[i].get("sys_id").asText());
+		}
+	}
+
+	int next() {
+		this.next = (this.next + 1) % RECORDS;
+		return this.next;
+	}
+
+	@Benchmark
+	public String expandField() throws MyException, IOException {
+		int i = next();
+		return this.importer.expand(this.elementRecords[i], "name", this.elements[i]);
+	}
+
+	@Benchmark
+	public String expandConstant() throws MyException, IOException {
+		int i = next();
+		return this.importer.expand(this.elementRecords[i], "\"Node\"", this.elements[i]);
+	}
+
+	@Benchmark
+	public String expandVariable() throws MyException, IOException {
+		int i = next();
+		return this.importer.expand(this.elementRecords[i], "${property:property 1}", this.elements[i]);
+	}
+
+	@Benchmark
+	public String expandReferenceLink() throws MyException, IOException {
+		int i = next();
+		return this.importer.expand(this.elementRecords[i], "company#name", this.elements[i]);
+	}
+
+	@Benchmark
+	public String expandPath() throws MyException, IOException {
+		int i = next();
+		return this.importer.expandPath(this.elementRecords[i], "\"snow plugin\"/sys_class_name/${class}", this.elements[i]);
+	}
+
+	@Benchmark
+	public String getJsonField() throws MyException, IOException {
+		return this.importer.getJsonField(this.elementRecords[next()], "short_description");
+	}
+
+	@Benchmark
+	public String getJsonFieldReferenceValue() throws MyException, IOException {
+		return this.importer.getJsonField(this.relationRecords[next()], "parent#value");
+	}
+
+	@Benchmark
+	public HashSet<String> getPathFields() {
+		return this.importer.getPathFields("\"snow plugin\"/sys_class_name/${class}/company#name");
+	}
+
+	@Benchmark
+	public IArchimateElement updateElement() throws MyException {
+		String id = this.elementRecords[next()].get("sys_id").asText();
+		return this.importer.createOrRemoveArchimateElement(this.benchmarkModel.model, "Node", "full", this.importer.OPERATIONAL, id);
+	}
+
+	@Benchmark
+	public IArchimateElement createElement() throws MyException {
+		// the new element is removed from the index, so that the index keeps the same size
+		IArchimateElement element = this.importer.createOrRemoveArchimateElement(this.benchmarkModel.model, "Node", "full", this.importer.OPERATIONAL, "new-" + (this.newId++));
+		this.importer.modelIndex.remove(element);
+		return element;
+	}
+
+	@Benchmark
+	public IArchimateRelationship updateRelation() {
+		JsonNode record = this.relationRecords[next()];
+		return this.importer.createOrRemoveArchimateRelation(this.benchmarkModel.model, "ServingRelationship", "full", record.get("sys_id").asText(), record.get("parent").get("value").asText(), record.get("child").get("value").asText());
+	}
+}
@@ -0,0 +1,668 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in of the ServiceNow Table API, serving the CMDB computed by a MyCmdbGenerator<br>
+ * <br>
+ * It answers GET /api/now/table/&lt;table&gt; and GET /api/now/table/&lt;table&gt;/&lt;sys_id&gt; like ServiceNow does for what the plugin uses:
+ *    - sysparm_fields, sysparm_limit, sysparm_offset, sysparm_no_count and sysparm_exclude_reference_link
+ *    - sysparm_query conditions joined by ^: xxxIN, xxx=, xxx!=, xxx&gt;=, xxx&gt;, xxx&lt;=, xxx&lt;, xxxISEMPTY, xxxISNOTEMPTY and xxxINSTANCEOF,
+ *      with their ^OR alternatives and on dot-walked reference fields (parent.sys_class_name for instance)
+ *      (the ORDERBY and the other conditions are ignored, the records are always sent in the order of their index)
+ *    - the X-Total-Count and Link headers
+ *    - reference fields sent as {"link": ..., "value": ...} objects
+ *    - gzip or deflate compressed responses, when asked in the Accept-Encoding header
+ * <br>
+ * The latency of each request, the rate of requests throttled (HTTP 429) and the rate of requests in error (HTTP 500) can be configured to see how
+ * the plugin behaves with a real instance. The throttled and failed requests are chosen from the seed, the URI of the request and the number of
+ * times this URI has been requested, so that two runs with the same seed fail the same way whatever the order in which the parallel requests
+ * arrive. As the plugin does not retry the throttled nor the failed requests (it does not handle the Retry-After header), any throttled or
+ * failed request makes the import fail: these rates are meant to test how the failures are reported, not to measure the throughput.<br>
+ * <br>
+ * The credentials are not checked.
+ */
+public class MyServiceNowStandIn {
+	static final String API_PATH = "/api/now/table/";
+	static final JsonFactory jsonFactory = new JsonFactory();
+
+	MyCmdbGenerator generator;
+	long seed;
+	int threads = 16;
+
+	int latency = 0;
+	double throttleRate = 0;
+	double errorRate = 0;
+
+	HttpServer server = null;
+	ExecutorService executor = null;
+	String site = null;
+
+	AtomicLong requests = new AtomicLong();
+	AtomicLong records = new AtomicLong();
+	// number of times each URI has been requested, only kept when requests are throttled or failed
+	Map<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+
+	// number of records that match a query, as it is long to compute when the records must be filtered
+	Map<String, Integer> counts = new ConcurrentHashMap<String, Integer>();
+	// for each query, position of the first record of the pages already sent, so that the next pages do not need to filter the records from the start
+	Map<String, ConcurrentSkipListMap<Integer, Integer>> checkpoints = new ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, Integer>>();
+
+	public MyServiceNowStandIn(MyCmdbGenerator cmdbGenerator, long randomSeed) {
+		this.generator = cmdbGenerator;
+		this.seed = randomSeed;
+	}
+
+	/**
+	 * @param milliseconds time to wait before answering each request
+	 */
+	public void setLatency(int milliseconds) {
+		this.latency = Math.max(0, milliseconds);
+	}
+
+	/**
+	 * @param rate rate (between 0 and 1) of requests refused with an HTTP 429 "Too many requests" error
+	 */
+	public void setThrottleRate(double rate) {
+		this.throttleRate = rate;
+	}
+
+	/**
+	 * @param rate rate (between 0 and 1) of requests refused with an HTTP 500 error
+	 */
+	public void setErrorRate(double rate) {
+		this.errorRate = rate;
+	}
+
+	/**
+	 * @param count number of requests that can be answered in parallel
+	 */
+	public void setThreads(int count) {
+		this.threads = Math.max(1, count);
+	}
+
+	/**
+	 * @return the number of requests received since the stand-in has been started
+	 */
+	public long getRequests() {
+		return this.requests.get();
+	}
+
+	/**
+	 * @return the number of records sent since the stand-in has been started
+	 */
+	public long getRecords() {
+		return this.records.get();
+	}
+
+	/**
+	 * Starts listening on a free port of the loopback interface
+	 * @return the URL of the stand-in, to be used as servicenow.site
+	 */
+	public String start() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				// the stand-in must not prevent the JVM from exiting
+				Thread thread = new Thread(runnable, "ServiceNow stand-in");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.server.setExecutor(this.executor);
+		this.server.createContext(API_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					MyServiceNowStandIn.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		this.server.start();
+		this.site = "http://127.0.0.1:" + this.server.getAddress().getPort();
+		return this.site;
+	}
+
+	public void stop() {
+		if ( this.server != null ) {
+			this.server.stop(0);
+			this.server = null;
+		}
+		if ( this.executor != null ) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * @return a number between 0 and 1 that only depends on the seed, the URI and the number of times the URI has been requested
+	 */
+	double getDraw(String uri) {
+		AtomicInteger counter = this.attempts.get(uri);
+		if ( counter == null ) {
+			AtomicInteger newCounter = new AtomicInteger();
+			counter = this.attempts.putIfAbsent(uri, newCounter);
+			if ( counter == null )
+				counter = newCounter;
+		}
+		int attempt = counter.incrementAndGet();
+		return new SplittableRandom((this.seed * 31 + uri.hashCode()) * 31 + attempt).nextDouble();
+	}
+
+	void handle(HttpExchange exchange) throws IOException {
+		this.requests.incrementAndGet();
+
+		if ( this.latency > 0 ) {
+			try {
+				Thread.sleep(this.latency);
+			} catch ( @SuppressWarnings("unused") InterruptedException ign ) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		double draw = ((this.throttleRate + this.errorRate) > 0) ? getDraw(exchange.getRequestURI().getRawPath() + "?" + exchange.getRequestURI().getRawQuery()) : 1;
+		if ( draw < this.throttleRate ) {
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			sendError(exchange, 429, "Too many requests", "The rate limit of the stand-in has been exceeded");
+			return;
+		}
+		if ( draw < this.throttleRate + this.errorRate ) {
+			sendError(exchange, 500, "Internal error", "Error injected by the stand-in");
+			return;
+		}
+
+		if ( !exchange.getRequestMethod().equals("GET") ) {
+			sendError(exchange, 405, "Method not allowed", "Only GET requests are supported by the stand-in");
+			return;
+		}
+
+		String[] path = exchange.getRequestURI().getPath().substring(API_PATH.length()).split("/");
+		String table = path[0];
+		if ( this.generator.getRange(table) == null ) {
+			sendError(exchange, 400, "Invalid table " + table, null);
+			return;
+		}
+
+		Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+		if ( path.length == 2 )
+			sendRecord(exchange, table, path[1], parameters);
+		else
+			sendRecords(exchange, table, parameters);
+	}
+
+	static Map<String, String> getParameters(String rawQuery) throws UnsupportedEncodingException {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if ( rawQuery != null ) {
+			for ( String parameter: rawQuery.split("&") ) {
+				int equal = parameter.indexOf('=');
+				if ( equal == -1 )
+					parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+				else
+					parameters.put(URLDecoder.decode(parameter.substring(0, equal), "UTF-8"), URLDecoder.decode(parameter.substring(equal + 1), "UTF-8"));
+			}
+		}
+		return parameters;
+	}
+
+	static int getInt(Map<String, String> parameters, String name, int defaultValue) {
+		String value = parameters.get(name);
+		if ( value != null ) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch ( @SuppressWarnings("unused") NumberFormatException ign ) {
+				// we use the default value, like ServiceNow does
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Condition of a sysparm_query
+	 */
+	static class Condition {
+		static final String[] OPERATORS = {"ISNOTEMPTY", "ISEMPTY", "INSTANCEOF", "NOT IN", "IN", "!=", ">=", "<=", "=", ">", "<"};
+
+		String field;
+		String operator;
+		String value;
+		TreeSet<String> values;
+		List<Condition> alternatives = new ArrayList<Condition>();
+
+		/**
+		 * @return the condition, or null if it is not supported by the stand-in
+		 */
+		static Condition parse(String condition) {
+			// the operator is the first one found after the field name (the longest one if several operators start at the same place)
+			String operator = null;
+			int index = -1;
+			for ( String candidate: OPERATORS ) {
+				int candidateIndex = condition.indexOf(candidate);
+				if ( (candidateIndex > 0) && ((index == -1) || (candidateIndex < index)) ) {
+					operator = candidate;
+					index = candidateIndex;
+				}
+			}
+			if ( operator == null )
+				return null;
+
+			Condition result = new Condition();
+			result.field = condition.substring(0, index);
+			result.operator = operator;
+			result.value = condition.substring(index + operator.length());
+			if ( operator.endsWith("IN") ) {
+				result.values = new TreeSet<String>();
+				for ( String value: result.value.split(",") )
+					result.values.add(value.trim());
+			}
+			return result;
+		}
+
+		/**
+		 * @return true if the record matches the condition or one of its ^OR alternatives
+		 */
+		boolean matches(Map<String, Object> record, MyCmdbGenerator generator) {
+			if ( matchesValue(getValue(record, this.field, generator)) )
+				return true;
+			for ( Condition alternative: this.alternatives )
+				if ( alternative.matchesValue(getValue(record, alternative.field, generator)) )
+					return true;
+			return false;
+		}
+
+		/**
+		 * @return the value of the field, following the references of the dot-walked fields, or an empty string if it is not set
+		 */
+		static String getValue(Map<String, Object> record, String field, MyCmdbGenerator generator) {
+			Map<String, Object> fields = record;
+			String name = field;
+			int dot;
+			while ( (dot = name.indexOf('.')) != -1 ) {
+				Object reference = fields.get(name.substring(0, dot));
+				if ( !(reference instanceof MyCmdbGenerator.Reference) )
+					return "";
+				String sysId = ((MyCmdbGenerator.Reference)reference).sysId;
+				fields = generator.getRecord(MyCmdbGenerator.getKind(sysId), MyCmdbGenerator.getIndex(sysId));
+				if ( fields == null )
+					return "";
+				name = name.substring(dot + 1);
+			}
+			Object fieldValue = fields.get(name);
+			String value = (fieldValue instanceof MyCmdbGenerator.Reference) ? ((MyCmdbGenerator.Reference)fieldValue).sysId : (String)fieldValue;
+			return value == null ? "" : value;
+		}
+
+		/**
+		 * @return true if the table is the given one or extends it (all the CI tables extend cmdb_ci, the servers ones extend cmdb_ci_server)
+		 */
+		static boolean isInstanceOf(String table, String parent) {
+			if ( table.equals(parent) )
+				return true;
+			if ( parent.equals("cmdb_ci") )
+				return table.startsWith("cmdb_ci_");
+			if ( parent.equals("cmdb_ci_server") )
+				return table.startsWith("cmdb_ci_") && table.endsWith("_server");
+			return false;
+		}
+
+		boolean matchesValue(String value) {
+			switch ( this.operator ) {
+				case "ISNOTEMPTY": return !value.isEmpty();
+				case "INSTANCEOF": return isInstanceOf(value, this.value);
+				case "ISEMPTY":    return value.isEmpty();
+				case "NOT IN":     return !this.values.contains(value);
+				case "IN":         return this.values.contains(value);
+				case "!=":         return !value.equals(this.value);
+				case "=":          return value.equals(this.value);
+				// the dates are in the yyyy-MM-dd HH:mm:ss format, so they can be compared as strings
+				case ">=":         return value.compareTo(this.value) >= 0;
+				case "<=":         return value.compareTo(this.value) <= 0;
+				case ">":          return value.compareTo(this.value) > 0;
+				default:           return value.compareTo(this.value) < 0;
+			}
+		}
+	}
+
+	/**
+	 * Records of a table that match a sysparm_query: ranges of indexes that may match, and the conditions that the records must fulfil
+	 */
+	class Selection {
+		int kind;
+		List<int[]> ranges = new ArrayList<int[]>();
+		List<Condition> conditions = new ArrayList<Condition>();
+
+		Selection(String table, String query) {
+			this.kind = MyCmdbGenerator.getTableKind(table);
+			int[] tableRange = MyServiceNowStandIn.this.generator.getRange(table);
+			this.ranges.add(tableRange);
+
+			if ( query == null )
+				return;
+
+			// last condition kept, to which the ^OR alternatives are added (the alternatives of the conditions that select ranges are ignored)
+			Condition previous = null;
+			for ( String part: query.split("\\^") ) {
+				if ( part.isEmpty() || part.startsWith("ORDERBY") || part.equals("EQ") )
+					continue;
+				if ( part.startsWith("OR") ) {
+					Condition alternative = Condition.parse(part.substring(2));
+					if ( (alternative != null) && (previous != null) )
+						previous.alternatives.add(alternative);
+					continue;
+				}
+				Condition condition = Condition.parse(part);
+				previous = null;
+				if ( condition == null )
+					continue;
+
+				if ( condition.field.equals("sys_id") && condition.operator.equals("IN") ) {
+					// we only consider the records listed
+					TreeSet<Long> indexes = new TreeSet<Long>();
+					for ( String sysId: condition.values ) {
+						long index = MyCmdbGenerator.getIndex(sysId);
+						if ( (MyCmdbGenerator.getKind(sysId) == this.kind) && (index >= tableRange[0]) && (index < tableRange[1]) )
+							indexes.add(Long.valueOf(index));
+					}
+					this.ranges = intersect(this.ranges, indexes);
+				} else if ( (this.kind == MyCmdbGenerator.KIND_RELATION) && condition.field.equals("type") && condition.operator.equals("IN") ) {
+					// the relations are grouped by type, so we only consider the ranges of the requested types
+					List<int[]> typeRanges = new ArrayList<int[]>();
+					for ( int type = 0; type < MyCmdbGenerator.RELATION_TYPES.length; ++type ) {
+						if ( condition.values.contains(MyCmdbGenerator.getSysId(MyCmdbGenerator.KIND_RELATION_TYPE, type)) )
+							typeRanges.add(MyServiceNowStandIn.this.generator.getRelationTypeRange(type));
+					}
+					List<int[]> intersection = new ArrayList<int[]>();
+					for ( int[] range: this.ranges ) {
+						for ( int[] typeRange: typeRanges ) {
+							int from = Math.max(range[0], typeRange[0]);
+							int to = Math.min(range[1], typeRange[1]);
+							if ( from < to )
+								intersection.add(new int[] {from, to});
+						}
+					}
+					this.ranges = intersection;
+				} else {
+					this.conditions.add(condition);
+					previous = condition;
+				}
+			}
+		}
+
+		List<int[]> intersect(List<int[]> currentRanges, TreeSet<Long> indexes) {
+			List<int[]> intersection = new ArrayList<int[]>();
+			for ( Long index: indexes ) {
+				for ( int[] range: currentRanges ) {
+					if ( (index.longValue() >= range[0]) && (index.longValue() < range[1]) ) {
+						intersection.add(new int[] {index.intValue(), index.intValue() + 1});
+						break;
+					}
+				}
+			}
+			return intersection;
+		}
+
+		int size() {
+			int size = 0;
+			for ( int[] range: this.ranges )
+				size += range[1] - range[0];
+			return size;
+		}
+
+		/**
+		 * @return the index of the record at the given position in the ranges, or -1 if the position is beyond the last range
+		 */
+		int getIndex(int position) {
+			int remaining = position;
+			for ( int[] range: this.ranges ) {
+				if ( remaining < range[1] - range[0] )
+					return range[0] + remaining;
+				remaining -= range[1] - range[0];
+			}
+			return -1;
+		}
+
+		/**
+		 * @return the record at the given position if it matches the conditions, else null
+		 */
+		Map<String, Object> getRecord(int position) {
+			int index = getIndex(position);
+			if ( index == -1 )
+				return null;
+			Map<String, Object> record = MyServiceNowStandIn.this.generator.getRecord(this.kind, index);
+			for ( Condition condition: this.conditions )
+				if ( !condition.matches(record, MyServiceNowStandIn.this.generator) )
+					return null;
+			return record;
+		}
+	}
+
+	int count(String key, Selection selection) {
+		if ( selection.conditions.isEmpty() )
+			return selection.size();
+
+		Integer count = this.counts.get(key);
+		if ( count == null ) {
+			int matching = 0;
+			int size = selection.size();
+			for ( int position = 0; position < size; ++position )
+				if ( selection.getRecord(position) != null )
+					++matching;
+			count = Integer.valueOf(matching);
+			this.counts.put(key, count);
+		}
+		return count.intValue();
+	}
+
+	void sendRecords(HttpExchange exchange, String table, Map<String, String> parameters) throws IOException {
+		String query = parameters.get("sysparm_query");
+		Selection selection = new Selection(table, query);
+		String key = table + "?" + query;
+
+		int limit = getInt(parameters, "sysparm_limit", 10000);
+		if ( limit <= 0 )
+			limit = Integer.MAX_VALUE;
+		int offset = Math.max(0, getInt(parameters, "sysparm_offset", 0));
+		boolean noCount = "true".equals(parameters.get("sysparm_no_count"));
+		boolean excludeReferenceLink = "true".equals(parameters.get("sysparm_exclude_reference_link"));
+		String[] fields = MyUtils.isSet(parameters.get("sysparm_fields")) ? parameters.get("sysparm_fields").split(",") : null;
+
+		// we look for the records of the page before sending the headers, as ServiceNow does
+		List<Map<String, Object>> page = new ArrayList<Map<String, Object>>();
+		int size = selection.size();
+		int position = 0;
+		int matching = 0;
+		if ( selection.conditions.isEmpty() ) {
+			position = offset;
+			matching = offset;
+		} else {
+			ConcurrentSkipListMap<Integer, Integer> queryCheckpoints = this.checkpoints.get(key);
+			if ( queryCheckpoints != null ) {
+				Map.Entry<Integer, Integer> checkpoint = queryCheckpoints.floorEntry(Integer.valueOf(offset));
+				if ( checkpoint != null ) {
+					matching = checkpoint.getKey().intValue();
+					position = checkpoint.getValue().intValue();
+				}
+			}
+		}
+		boolean more = false;
+		for ( ; position < size; ++position ) {
+			Map<String, Object> record = selection.getRecord(position);
+			if ( record == null )
+				continue;
+			if ( matching >= offset ) {
+				if ( page.size() == limit ) {
+					more = true;
+					break;
+				}
+				page.add(record);
+			}
+			++matching;
+		}
+		if ( more && !selection.conditions.isEmpty() ) {
+			this.checkpoints.putIfAbsent(key, new ConcurrentSkipListMap<Integer, Integer>());
+			this.checkpoints.get(key).put(Integer.valueOf(matching), Integer.valueOf(position));
+		}
+
+		if ( !noCount )
+			exchange.getResponseHeaders().set("X-Total-Count", String.valueOf(count(key, selection)));
+		if ( more )
+			exchange.getResponseHeaders().set("Link", "<" + getPageLink(exchange, table, parameters, 0) + ">;rel=\"first\",<" + getPageLink(exchange, table, parameters, offset + limit) + ">;rel=\"next\"");
+
+		try ( OutputStream body = getBody(exchange, 200);
+			  JsonGenerator generator = jsonFactory.createJsonGenerator(body, JsonEncoding.UTF8) ) {
+			generator.writeStartObject();
+			generator.writeArrayFieldStart("result");
+			for ( Map<String, Object> record: page )
+				writeRecord(generator, record, fields, excludeReferenceLink);
+			generator.writeEndArray();
+			generator.writeEndObject();
+		}
+		this.records.addAndGet(page.size());
+	}
+
+	void sendRecord(HttpExchange exchange, String table, String sysId, Map<String, String> parameters) throws IOException {
+		int[] range = this.generator.getRange(table);
+		long index = MyCmdbGenerator.getIndex(sysId);
+		Map<String, Object> record = null;
+		if ( (MyCmdbGenerator.getKind(sysId) == MyCmdbGenerator.getTableKind(table)) && (index >= range[0]) && (index < range[1]) )
+			record = this.generator.getRecord(MyCmdbGenerator.getKind(sysId), index);
+		if ( record == null ) {
+			sendError(exchange, 404, "No Record found", "Record doesn't exist or ACL restricts the record retrieval");
+			return;
+		}
+
+		boolean excludeReferenceLink = "true".equals(parameters.get("sysparm_exclude_reference_link"));
+		String[] fields = MyUtils.isSet(parameters.get("sysparm_fields")) ? parameters.get("sysparm_fields").split(",") : null;
+
+		try ( OutputStream body = getBody(exchange, 200);
+			  JsonGenerator generator = jsonFactory.createJsonGenerator(body, JsonEncoding.UTF8) ) {
+			generator.writeStartObject();
+			generator.writeFieldName("result");
+			writeRecord(generator, record, fields, excludeReferenceLink);
+			generator.writeEndObject();
+		}
+		this.records.incrementAndGet();
+	}
+
+	void writeRecord(JsonGenerator generator, Map<String, Object> record, String[] fields, boolean excludeReferenceLink) throws IOException {
+		generator.writeStartObject();
+		if ( fields == null ) {
+			for ( Map.Entry<String, Object> field: record.entrySet() )
+				writeField(generator, field.getKey(), field.getValue(), excludeReferenceLink);
+		} else {
+			for ( String field: fields ) {
+				// like ServiceNow, we do not send the fields that do not exist
+				Object value = record.get(field.trim());
+				if ( value != null )
+					writeField(generator, field.trim(), value, excludeReferenceLink);
+			}
+		}
+		generator.writeEndObject();
+	}
+
+	void writeField(JsonGenerator generator, String name, Object value, boolean excludeReferenceLink) throws IOException {
+		if ( value instanceof MyCmdbGenerator.Reference ) {
+			MyCmdbGenerator.Reference reference = (MyCmdbGenerator.Reference)value;
+			if ( excludeReferenceLink )
+				generator.writeStringField(name, reference.sysId);
+			else {
+				generator.writeObjectFieldStart(name);
+				generator.writeStringField("link", this.site + API_PATH + reference.table + "/" + reference.sysId);
+				generator.writeStringField("value", reference.sysId);
+				generator.writeEndObject();
+			}
+		} else
+			generator.writeStringField(name, (String)value);
+	}
+
+	String getPageLink(HttpExchange exchange, String table, Map<String, String> parameters, int offset) throws UnsupportedEncodingException {
+		StringBuilder link = new StringBuilder(this.site);
+		link.append(API_PATH);
+		link.append(table);
+		char separator = '?';
+		for ( Map.Entry<String, String> parameter: parameters.entrySet() ) {
+			if ( parameter.getKey().equals("sysparm_offset") )
+				continue;
+			link.append(separator);
+			link.append(URLEncoder.encode(parameter.getKey(), "UTF-8"));
+			link.append('=');
+			link.append(URLEncoder.encode(parameter.getValue(), "UTF-8").replace("+", "%20"));
+			separator = '&';
+		}
+		link.append(separator);
+		link.append("sysparm_offset=");
+		link.append(offset);
+		return link.toString();
+	}
+
+	/**
+	 * Sends the response headers
+	 * @return the stream the JSON response must be written to, that compresses it if the client accepts it
+	 */
+	static OutputStream getBody(HttpExchange exchange, int code) throws IOException {
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		String encoding = null;
+		if ( acceptEncoding != null ) {
+			if ( acceptEncoding.contains("gzip") )
+				encoding = "gzip";
+			else if ( acceptEncoding.contains("deflate") )
+				encoding = "deflate";
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+		if ( encoding != null )
+			exchange.getResponseHeaders().set("Content-Encoding", encoding);
+		exchange.sendResponseHeaders(code, 0);
+
+		OutputStream body = exchange.getResponseBody();
+		if ( "gzip".equals(encoding) )
+			return new GZIPOutputStream(body, 65536);
+		if ( "deflate".equals(encoding) )
+			return new DeflaterOutputStream(body);
+		return body;
+	}
+
+	static void sendError(HttpExchange exchange, int code, String message, String detail) throws IOException {
+		try ( OutputStream body = getBody(exchange, code);
+			  JsonGenerator generator = jsonFactory.createJsonGenerator(body, JsonEncoding.UTF8) ) {
+			generator.writeStartObject();
+			generator.writeObjectFieldStart("error");
+			generator.writeStringField("message", message);
+			generator.writeStringField("detail", detail);
+			generator.writeEndObject();
+			generator.writeStringField("status", "failure");
+			generator.writeEndObject();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.archicontribs.servicenow;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.varia.NullAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the lookups in the INI file properties, by key or through the index of their dotted segments
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MySortedPropertiesBenchmark {
+	// number of elements tables and of relation types described in the INI file
+	@Param({"50", "500"})
+	int tables;
+
+	MySortedProperties iniProperties;
+	int next = 0;
+
+	@Setup
+	public void setup() {
+		Logger.getRootLogger().removeAllAppenders();
+		Logger.getRootLogger().addAppender(new NullAppender());
+		Logger.getRootLogger().setLevel(Level.INFO);
+
+		this.iniProperties = new MySortedProperties(Logger.getLogger("SNowPlugin"));
+		this.iniProperties.setProperty("servicenow.sysparm_limit", "1000000");
+		this.iniProperties.setProperty("servicenow.sysparm_no_count", "false");
+		this.iniProperties.setProperty("archi.elements.*.name", "name");
+		this.iniProperties.setProperty("archi.relations.*.folder", "\"relations\"");
+		for ( int i = 0; i < this.tables; ++i ) {
+			this.iniProperties.setProperty("archi.elements.table" + i + ".snow_table", "cmdb_ci_table" + i);
+			this.iniProperties.setProperty("archi.elements.table" + i + ".archi_class", "\"Node\"");
+			this.iniProperties.setProperty("archi.elements.table" + i + ".folder", "\"folder " + i + "\"");
+			this.iniProperties.setProperty("archi.elements.table" + i + ".property.company", "company#name");
+			this.iniProperties.setProperty("archi.relations.type" + i + ".archi_class", "\"ServingRelationship\"");
+			this.iniProperties.setProperty("archi.relations.type" + i + ".property.type", "type#name");
+		}
+	}
+
+	int next() {
+		this.next = (this.next + 1) % this.tables;
+		return this.next;
+	}
+
+	@Benchmark
+	public String getStringFound() {
+		return this.iniProperties.getString("archi.elements.table" + next() + ".folder");
+	}
+
+	@Benchmark
+	public String getStringWithFallback() {
+		// lookup of a relation type property with a fallback on the archi.relations.*.xxx property
+		int i = next();
+		return this.iniProperties.getString("archi.relations.type" + i + ".folder", this.iniProperties.getString("archi.relations.*.folder"));
+	}
+
+	@Benchmark
+	public String getStringWithIndexedFallback() {
+		// this is how the relation types' configs are built (cf. MyRelationConfig)
+		return this.iniProperties.getString("archi.relations", "type" + next(), "folder", null);
+	}
+
+	@Benchmark
+	public TreeMap<String, String> getIndexedValues() {
+		// this is how the properties of an elements table are got
+		return this.iniProperties.getIndex().getValues("archi.elements.table" + next() + ".property");
+	}
+
+	@Benchmark
+	public List<String> getIndexedChildren() {
+		// this is how the elements tables are listed
+		return this.iniProperties.getIndex().getChildren("archi.elements");
+	}
+
+	@Benchmark
+	public MyIniIndex buildIndex() {
+		return new MyIniIndex(this.iniProperties);
+	}
+
+	@Benchmark
+	public Integer getInt() {
+		return this.iniProperties.getInt("servicenow.sysparm_limit", Integer.valueOf(0));
+	}
+
+	@Benchmark
+	public Boolean getBoolean() {
+		return this.iniProperties.getBoolean("servicenow.sysparm_no_count", Boolean.FALSE);
+	}
+
+	@Benchmark
+	public Set<String> stringPropertyNames() {
+		return this.iniProperties.stringPropertyNames();
+	}
+}
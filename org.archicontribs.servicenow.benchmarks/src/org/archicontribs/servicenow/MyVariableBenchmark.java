@@ -0,0 +1,67 @@
+package org.archicontribs.servicenow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.archimatetool.model.IArchimateElement;
+
+/**
+ * Benchmarks of the expansion of the ${...} variables
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MyVariableBenchmark {
+	@Param({"10000", "100000", "1000000"})
+	int concepts;
+
+	Logger logger;
+	IArchimateElement element;
+
+	@Setup
+	public void setup() {
+		MyBenchmarkModel benchmarkModel = new MyBenchmarkModel(this.concepts);
+		this.logger = benchmarkModel.importer.logger;
+		this.element = (IArchimateElement)benchmarkModel.importer.modelIndex.getObjectByID("id-" + (benchmarkModel.elements / 2));
+	}
+
+	@Benchmark
+	public String expandTemplate() throws MyException {
+		return MyVariable.expand(this.logger, "${name} (${class}) - ${property:property 1}", this.element);
+	}
+
+	@Benchmark
+	public String expandWithoutVariable() throws MyException {
+		return MyVariable.expand(this.logger, "no variable in this string", this.element);
+	}
+
+	@Benchmark
+	public String getVariableClass() throws MyException {
+		return MyVariable.getVariable(this.logger, "${class}", this.element);
+	}
+
+	@Benchmark
+	public String getVariableProperty() throws MyException {
+		return MyVariable.getVariable(this.logger, "${property:property 2}", this.element);
+	}
+
+	@Benchmark
+	public String getVariableModelName() throws MyException {
+		return MyVariable.getVariable(this.logger, "${model:name}", this.element);
+	}
+}
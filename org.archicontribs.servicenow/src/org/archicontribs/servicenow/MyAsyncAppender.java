@@ -0,0 +1,308 @@
+package org.archicontribs.servicenow;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Log4j appender that writes the log events from a background thread<br>
+ * <br>
+ * The events are put in a bounded ring buffer by the threads that log them, and a single background thread hands them to the wrapped appenders
+ * (the file appender of the INI file for instance), so that the import does not wait for the file I/O. When the buffer is full:
+ *    - with the blocking policy, the threads that log wait for some room, so that no event is lost
+ *    - with the dropping policy, the TRACE and DEBUG events are dropped (the INFO and above events still wait), and the number of dropped
+ *      events is logged as a warning
+ * <br>
+ * Everything that depends on the thread that logs (thread name, NDC, MDC, rendered message, and location if a layout needs it) is got
+ * before the event is put in the buffer.
+ */
+public class MyAsyncAppender extends AppenderSkeleton implements AppenderAttachable {
+	// conversion characters of the PatternLayout that need the location of the logging statement
+	static final Pattern locationPattern = Pattern.compile("%[-0-9.]*[CFLlM]");
+
+	AppenderAttachableImpl appenders = new AppenderAttachableImpl();
+	// the appenders that flush their file after each event only do it after the last event of each batch
+	List<WriterAppender> flushingAppenders = new ArrayList<WriterAppender>();
+	ArrayBlockingQueue<LoggingEvent> buffer;
+	boolean blocking;
+	boolean locationInfo = false;
+
+	AtomicLong queued = new AtomicLong();
+	AtomicLong dropped = new AtomicLong();
+	long dispatched = 0;
+	Object dispatchedLock = new Object();
+
+	volatile boolean closing = false;
+	Thread dispatcher;
+
+	/**
+	 * @param bufferSize maximum number of events waiting to be written
+	 * @param isBlocking true if the threads that log wait when the buffer is full, false if the TRACE and DEBUG events are dropped
+	 */
+	public MyAsyncAppender(int bufferSize, boolean isBlocking) {
+		this.buffer = new ArrayBlockingQueue<LoggingEvent>(Math.max(1, bufferSize));
+		this.blocking = isBlocking;
+		this.dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "SNowPlugin log writer");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Moves the appenders of the logger to a new asynchronous appender
+	 * @return the asynchronous appender (the existing one if the logger's appenders are already asynchronous), or null if the logger has no appender
+	 */
+	public static MyAsyncAppender attach(Logger logger, int bufferSize, boolean isBlocking) {
+		List<Appender> loggerAppenders = new ArrayList<Appender>();
+		for ( Enumeration<?> e = logger.getAllAppenders(); e.hasMoreElements(); ) {
+			Appender appender = (Appender)e.nextElement();
+			if ( appender instanceof MyAsyncAppender )
+				return (MyAsyncAppender)appender;
+			loggerAppenders.add(appender);
+		}
+		if ( loggerAppenders.isEmpty() )
+			return null;
+
+		MyAsyncAppender asyncAppender = new MyAsyncAppender(bufferSize, isBlocking);
+		asyncAppender.setName(logger.getName() + " async");
+		for ( Appender appender: loggerAppenders ) {
+			logger.removeAppender(appender);
+			asyncAppender.addAppender(appender);
+		}
+		logger.addAppender(asyncAppender);
+		return asyncAppender;
+	}
+
+	/**
+	 * @return true if the layout of the appender prints the location of the logging statement (class, file, line or method)
+	 */
+	static boolean needsLocationInfo(Appender appender) {
+		Layout layout = appender.getLayout();
+		if ( layout == null )
+			return false;
+		if ( layout instanceof PatternLayout )
+			return (((PatternLayout)layout).getConversionPattern() != null) && locationPattern.matcher(((PatternLayout)layout).getConversionPattern()).find();
+		// we do not know, so we prefer to get the location
+		return true;
+	}
+
+	/**
+	 * Unlike the other appenders, this one is not synchronized: the threads that log only wait for each other when the buffer is full
+	 */
+	@Override
+	public void doAppend(LoggingEvent event) {
+		if ( this.closed || !isAsSevereAsThreshold(event.getLevel()) )
+			return;
+
+		for ( Filter filter = getFirstFilter(); filter != null; filter = filter.getNext() ) {
+			int decision = filter.decide(event);
+			if ( decision == Filter.DENY )
+				return;
+			if ( decision == Filter.ACCEPT )
+				break;
+		}
+
+		append(event);
+	}
+
+	@Override
+	protected void append(LoggingEvent event) {
+		if ( this.closing ) {
+			this.appenders.appendLoopOnAppenders(event);
+			return;
+		}
+
+		// we get what depends on the current thread before the event is written by the dispatcher thread
+		event.getNDC();
+		event.getThreadName();
+		event.getMDCCopy();
+		event.getRenderedMessage();
+		if ( this.locationInfo )
+			event.getLocationInformation();
+
+		if ( !this.blocking && !event.getLevel().isGreaterOrEqual(Level.INFO) ) {
+			if ( !this.buffer.offer(event) ) {
+				this.dropped.incrementAndGet();
+				return;
+			}
+		} else {
+			try {
+				while ( !this.buffer.offer(event, 100, TimeUnit.MILLISECONDS) ) {
+					// the dispatcher thread may have stopped while we were waiting
+					if ( this.closing ) {
+						this.appenders.appendLoopOnAppenders(event);
+						return;
+					}
+				}
+			} catch (@SuppressWarnings("unused") InterruptedException e) {
+				// we write the event ourselves rather than losing it
+				Thread.currentThread().interrupt();
+				this.appenders.appendLoopOnAppenders(event);
+				return;
+			}
+		}
+		this.queued.incrementAndGet();
+
+		// the dispatcher thread may have stopped before getting the event
+		if ( this.closing )
+			drain();
+	}
+
+	/**
+	 * Writes the events that remain in the buffer from the current thread
+	 */
+	void drain() {
+		LoggingEvent event;
+		while ( (event = this.buffer.poll()) != null )
+			this.appenders.appendLoopOnAppenders(event);
+	}
+
+	/**
+	 * Writes the events from the buffer, until the appender is closed and the buffer is empty
+	 */
+	void dispatch() {
+		List<LoggingEvent> events = new ArrayList<LoggingEvent>();
+		while ( !this.closing || !this.buffer.isEmpty() ) {
+			try {
+				LoggingEvent event = this.buffer.poll(100, TimeUnit.MILLISECONDS);
+				if ( event == null )
+					continue;
+				events.add(event);
+			} catch (@SuppressWarnings("unused") InterruptedException e) {
+				continue;
+			}
+			this.buffer.drainTo(events);
+			// the warning about the dropped events is not counted, as it has not been queued
+			int dequeued = events.size();
+
+			long droppedEvents = this.dropped.getAndSet(0);
+			if ( droppedEvents != 0 ) {
+				LoggingEvent last = events.get(events.size() - 1);
+				events.add(new LoggingEvent(last.getFQNOfLoggerClass(), last.getLogger(), Level.WARN, droppedEvents + " trace and debug log events have been dropped as the log buffer was full.", null));
+			}
+
+			for ( int i = 0; i < events.size(); ++i ) {
+				if ( i == events.size() - 1 )
+					setImmediateFlush(true);
+				this.appenders.appendLoopOnAppenders(events.get(i));
+			}
+			setImmediateFlush(false);
+
+			synchronized ( this.dispatchedLock ) {
+				this.dispatched += dequeued;
+				this.dispatchedLock.notifyAll();
+			}
+			events.clear();
+		}
+	}
+
+	void setImmediateFlush(boolean immediateFlush) {
+		for ( WriterAppender appender: this.flushingAppenders )
+			appender.setImmediateFlush(immediateFlush);
+	}
+
+	/**
+	 * Waits until the events that have been logged so far are written
+	 */
+	public void flush() {
+		long target = this.queued.get();
+		synchronized ( this.dispatchedLock ) {
+			while ( (this.dispatched < target) && this.dispatcher.isAlive() ) {
+				try {
+					this.dispatchedLock.wait(100);
+				} catch (@SuppressWarnings("unused") InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining events, and closes the wrapped appenders
+	 */
+	@Override
+	public void close() {
+		synchronized ( this ) {
+			if ( this.closing )
+				return;
+			// the events logged from now on are written directly
+			this.closing = true;
+		}
+		try {
+			this.dispatcher.join();
+		} catch (@SuppressWarnings("unused") InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		setImmediateFlush(true);
+		drain();
+		this.closed = true;
+		this.appenders.removeAllAppenders();
+	}
+
+	@Override
+	public boolean requiresLayout() {
+		return false;
+	}
+
+	@Override
+	public synchronized void addAppender(Appender newAppender) {
+		if ( (newAppender instanceof WriterAppender) && ((WriterAppender)newAppender).getImmediateFlush() ) {
+			((WriterAppender)newAppender).setImmediateFlush(false);
+			this.flushingAppenders.add((WriterAppender)newAppender);
+		}
+		this.appenders.addAppender(newAppender);
+		if ( needsLocationInfo(newAppender) )
+			this.locationInfo = true;
+	}
+
+	@Override
+	public synchronized Enumeration<?> getAllAppenders() {
+		return this.appenders.getAllAppenders();
+	}
+
+	@Override
+	public synchronized Appender getAppender(String appenderName) {
+		return this.appenders.getAppender(appenderName);
+	}
+
+	@Override
+	public synchronized boolean isAttached(Appender appender) {
+		return this.appenders.isAttached(appender);
+	}
+
+	@Override
+	public synchronized void removeAllAppenders() {
+		this.appenders.removeAllAppenders();
+	}
+
+	@Override
+	public synchronized void removeAppender(Appender appender) {
+		this.appenders.removeAppender(appender);
+	}
+
+	@Override
+	public synchronized void removeAppender(String appenderName) {
+		this.appenders.removeAppender(appenderName);
+	}
+}
@@ -1,95 +1,923 @@
-package org.archicontribs.servicenow;
-
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.Authenticator;
-import java.net.HttpURLConnection;
-import java.net.InetSocketAddress;
-import java.net.PasswordAuthentication;
-import java.net.Proxy;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-
-import org.apache.log4j.Logger;
-
-public class MyConnection {
-	String proxyHost = null;
-	int proxyPort = 0;
-	String proxyUser = null;
-	String proxyPassowrd = null;
-
-	MyProgressBar progressBar = null;
-	Logger logger = null;
-
-	public MyConnection(String theProxyHost, int theProxyPort, String theProxyUser, String theProxyPassword) {
-		this.proxyHost = theProxyHost;
-		this.proxyPort = theProxyPort;
-		this.proxyUser = theProxyUser;
-		this.proxyPassowrd = theProxyPassword;
-	}
-
-	public void setProgressBar(MyProgressBar bar) {
-		this.progressBar = bar;
-	}
-	
-	public void setLogger(Logger log) {
-		this.logger = log;
-	}
-
-	public String get(String what, String location, String username, String Password) throws MyException, IOException {
-		URL url = new URL(location);
-		HttpURLConnection c;
-        StringBuilder data = new StringBuilder();
-
-		if ( MyUtils.isSet(this.proxyHost) ) {
-			if ( MyUtils.isSet(this.proxyUser) ) {
-				Authenticator.setDefault( new Authenticator() {
-					@Override
-					public PasswordAuthentication getPasswordAuthentication() {
-						return new PasswordAuthentication(MyConnection.this.proxyUser, MyConnection.this.proxyPassowrd.toCharArray());
-						}
-				});
-			}
-			c = (HttpURLConnection) url.openConnection(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(this.proxyHost, this.proxyPort)));
-		} else {
-			c = (HttpURLConnection) url.openConnection();
-		}
-
-		String userpass = username + ":" + Password;        
-		c.setRequestProperty("Authorization",  "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes()), StandardCharsets.UTF_8));
-		c.setRequestProperty("Accept", "application/json");
-		int status = -1;
-		try {
-			status = c.getResponseCode();
-			if ( status != 200) {
-				throw new MyException("Error reported by ServiceNow website : code " + Integer.toString(status)); 
-			}
-	
-    		try ( InputStreamReader reader = new InputStreamReader(c.getInputStream()) ) {
-    	        if ( this.logger != null ) this.logger.trace("      Getting " + what + " from ServiceNow webservice ...");
-    	        if ( this.progressBar != null ) this.progressBar.setLabel("Getting " + what + " from ServiceNow webservice ...");
-    	        
-    	        int nb=0, total=0;
-    	        char[] buffer = new char[10240];    // 10 KB
-    	        while ( (nb=reader.read(buffer,0,buffer.length)) > 0 ) {
-                    data.append(buffer,0,nb);
-                    total+=nb;
-                    if ( this.progressBar != null ) {
-                        if ( total < 1048576 ) {
-                            this.progressBar.setDetailLabel("read "+String.format("%d", total/1024) + " KB");
-                        } else {
-                            this.progressBar.setDetailLabel("read "+String.format("%.2f", (float)total/1048576) + " MB");
-                        }
-                    }
-                }
-                if ( this.logger != null ) this.logger.trace("      Read " + total + " bytes from ServiceNow webservice.");
-                if ( this.progressBar != null ) this.progressBar.setLabel("");
-            }
-		} finally {
-		    c.disconnect();
-		}
-		
-		return data.toString();
-	}
-}
+package org.archicontribs.servicenow;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.MappingJsonFactory;
+
+/**
+ * Connection to the ServiceNow webservice<br>
+ * <br>
+ * A single instance is used for the whole import: it keeps a pool of keep-alive HTTP connections so that the tables, their pages and the
+ * reference links all reuse the same (proxied and TLS) connections. The connection must be closed at the end of the import.<br>
+ * <br>
+ * Unless compression is disabled, the responses are asked gzip or deflate compressed, and are decompressed while they are parsed, so that
+ * they are never held in memory.<br>
+ * <br>
+ * When a spill threshold is set, each response is downloaded before being parsed (cf. MyResponseBuffer), so that the connection is given
+ * back as soon as possible whatever the time needed to process the records. With page workers, the pages waiting to be processed are then
+ * kept as raw bytes, in memory or in temporary files, instead of parsed records, and are only parsed by the thread that processes them.
+ */
+public class MyConnection implements AutoCloseable {
+	static final JsonFactory jsonFactory = new MappingJsonFactory();
+	static final Pattern nextLinkPattern = Pattern.compile("<([^>]*)>\\s*;\\s*rel=\"next\"");
+
+	String proxyHost = null;
+	int proxyPort = 0;
+	String proxyUser = null;
+	String proxyPassowrd = null;
+
+	// maximum number of connections kept open to ServiceNow, connect and read timeouts in milliseconds (zero for no timeout)
+	int maxConnections = 4;
+	int connectTimeout = 0;
+	int readTimeout = 0;
+
+	CloseableHttpClient httpClient = null;
+
+	// whether the responses are asked compressed
+	boolean compression = true;
+
+	// size from which the downloaded responses are written to a temporary file (zero or negative to parse the responses while they are received)
+	int spillThreshold = 0;
+	// directory of the temporary files, deleted when the connection is closed
+	File spillDirectory = null;
+
+	// number of records per page (zero or negative to get the whole table in a single request) and number of pages downloaded in parallel
+	int pageSize = 0;
+	int pageWorkers = 1;
+
+	// requests being processed, and whether the import has been cancelled
+	Set<HttpGet> activeRequests = ConcurrentHashMap.newKeySet();
+	volatile boolean aborted = false;
+
+	MyProgressBar progressBar = null;
+	MyImportMetrics metrics = null;
+	Logger logger = null;
+
+	public MyConnection(String theProxyHost, int theProxyPort, String theProxyUser, String theProxyPassword) {
+		this.proxyHost = theProxyHost;
+		this.proxyPort = theProxyPort;
+		this.proxyUser = theProxyUser;
+		this.proxyPassowrd = theProxyPassword;
+	}
+
+	public void setProgressBar(MyProgressBar bar) {
+		this.progressBar = bar;
+	}
+	
+	public void setLogger(Logger log) {
+		this.logger = log;
+	}
+
+	/**
+	 * Sets the metrics that the requests are added to (null to not measure them)
+	 */
+	public void setMetrics(MyImportMetrics importMetrics) {
+		this.metrics = importMetrics;
+	}
+
+	public void setPaging(int size, int workers) {
+		this.pageSize = size;
+		this.pageWorkers = workers;
+	}
+
+	/**
+	 * Sets the maximum number of connections kept open to ServiceNow<br>
+	 * Must be called before the first request.
+	 */
+	public void setMaxConnections(int max) {
+		this.maxConnections = max;
+	}
+
+	/**
+	 * Sets the connect and read timeouts, in milliseconds (zero for no timeout)<br>
+	 * Must be called before the first request.
+	 */
+	public void setTimeouts(int connect, int read) {
+		this.connectTimeout = connect;
+		this.readTimeout = read;
+	}
+
+	/**
+	 * Sets whether the responses are asked gzip or deflate compressed (defaults to true)
+	 */
+	public void setCompression(boolean isCompressed) {
+		this.compression = isCompressed;
+	}
+
+	/**
+	 * Sets the size, in bytes, from which the responses are written to a temporary file<br>
+	 * If zero or negative (the default), the responses are parsed while they are received. Else, they are downloaded before being parsed, in
+	 * memory if they are smaller than the threshold, or in a memory-mapped temporary file.
+	 */
+	public void setSpillThreshold(int threshold) {
+		this.spillThreshold = threshold;
+	}
+
+	/**
+	 * Gets the HTTP client, creating it on the first call
+	 */
+	synchronized CloseableHttpClient getHttpClient() {
+		if ( this.httpClient == null ) {
+			PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+			connectionManager.setMaxTotal(this.maxConnections);
+			connectionManager.setDefaultMaxPerRoute(this.maxConnections);
+
+			RequestConfig requestConfig = RequestConfig.custom()
+					.setConnectTimeout(this.connectTimeout)
+					.setSocketTimeout(this.readTimeout)
+					.build();
+
+			// the responses are decompressed by CountingInputStream, so that both the compressed and the uncompressed sizes are known
+			HttpClientBuilder builder = HttpClients.custom()
+					.setConnectionManager(connectionManager)
+					.setDefaultRequestConfig(requestConfig)
+					.disableContentCompression();
+
+			if ( MyUtils.isSet(this.proxyHost) ) {
+				builder.setProxy(new HttpHost(this.proxyHost, this.proxyPort));
+				if ( MyUtils.isSet(this.proxyUser) ) {
+					CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+					credentialsProvider.setCredentials(new AuthScope(this.proxyHost, this.proxyPort), new UsernamePasswordCredentials(this.proxyUser, this.proxyPassowrd));
+					builder.setDefaultCredentialsProvider(credentialsProvider);
+				}
+			}
+
+			if ( this.logger != null ) this.logger.debug("   Creating HTTP client (" + this.maxConnections + " connections max, connect timeout = " + this.connectTimeout + " ms, read timeout = " + this.readTimeout + " ms, compression " + (this.compression ? "enabled" : "disabled") + ")");
+			this.httpClient = builder.build();
+		}
+		return this.httpClient;
+	}
+
+	/**
+	 * Aborts the requests being processed, and makes all the following requests fail<br>
+	 * May be called from any thread.
+	 */
+	public void abort() {
+		this.aborted = true;
+		for ( HttpGet request: this.activeRequests )
+			request.abort();
+		if ( this.logger != null ) this.logger.info("Aborted " + this.activeRequests.size() + " request(s) to ServiceNow.");
+	}
+
+	public boolean isAborted() {
+		return this.aborted;
+	}
+
+	/**
+	 * Throws an exception if the import has been cancelled
+	 */
+	void checkAborted() throws MyException {
+		if ( this.aborted )
+			throw new MyException("The import has been cancelled.");
+	}
+
+	/**
+	 * Closes all the connections to ServiceNow, and deletes the temporary files of the responses
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if ( this.httpClient != null ) {
+			this.httpClient.close();
+			this.httpClient = null;
+		}
+		deleteSpillDirectory();
+	}
+
+	/**
+	 * Gets the directory of the temporary files of the responses, creating it on the first call
+	 */
+	synchronized File getSpillDirectory() throws IOException {
+		if ( this.spillDirectory == null )
+			this.spillDirectory = Files.createTempDirectory("snow-import-").toFile();
+		return this.spillDirectory;
+	}
+
+	/**
+	 * Deletes the directory of the temporary files of the responses<br>
+	 * On the systems that cannot delete a mapped file (Windows), the files can only be deleted once their buffers have been garbage collected,
+	 * so the garbage collector is asked to release them before giving up. The files that still cannot be deleted are logged.
+	 */
+	synchronized void deleteSpillDirectory() {
+		if ( this.spillDirectory == null )
+			return;
+
+		List<File> files = new ArrayList<File>();
+		File[] spilledFiles = this.spillDirectory.listFiles();
+		if ( spilledFiles != null )
+			files.addAll(Arrays.asList(spilledFiles));
+		for ( int attempt = 0; ; ++attempt ) {
+			for ( Iterator<File> iterator = files.iterator(); iterator.hasNext(); ) {
+				if ( iterator.next().delete() )
+					iterator.remove();
+			}
+			if ( files.isEmpty() || (attempt == 3) )
+				break;
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (@SuppressWarnings("unused") InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		if ( this.spillDirectory.delete() ) {
+			if ( this.logger != null ) this.logger.debug("Deleted the temporary directory " + this.spillDirectory.getAbsolutePath());
+		} else {
+			// the files are deleted before their directory when the JVM exits
+			this.spillDirectory.deleteOnExit();
+			for ( File file: files ) {
+				if ( this.logger != null ) this.logger.warn("Cannot delete the temporary file " + file.getAbsolutePath());
+				file.deleteOnExit();
+			}
+		}
+		this.spillDirectory = null;
+	}
+
+	public String get(String what, String location, String username, String Password) throws MyException, IOException {
+        StringBuilder data = new StringBuilder();
+		HttpGet request = new HttpGet(escape(location));
+		long requestStart = System.nanoTime();
+		Object event = MyFlightRecorder.beginHttpRequest();
+		try ( CloseableHttpResponse response = connect(request, username, Password, event);
+			  CountingInputStream stream = new CountingInputStream(response.getEntity());
+			  InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8) ) {
+			long readStart = System.nanoTime();
+	        if ( this.logger != null ) this.logger.trace("      Getting " + what + " from ServiceNow webservice ...");
+	        
+	        int nb=0;
+	        char[] buffer = new char[10240];    // 10 KB
+	        while ( (nb=reader.read(buffer,0,buffer.length)) > 0 )
+                data.append(buffer,0,nb);
+            addMetrics(what, event, readStart - requestStart, stream, System.nanoTime() - readStart - stream.readTime);
+		} finally {
+			release(request);
+			MyFlightRecorder.endHttpRequest(event, what, location);
+		}
+		
+		return data.toString();
+	}
+
+	/**
+	 * Gets a ServiceNow table and streams its records to the handler<br>
+	 * <br>
+	 * The JSON parser reads the webservice byte stream directly, so only the record being processed is held in memory, whatever the size of the table.
+	 * @return the number of records that have been handed to the handler
+	 */
+	public int getRecords(String what, String location, String username, String Password, MyRecordHandler handler) throws MyException, IOException {
+		if ( this.progressBar != null ) this.progressBar.setLabel("Getting " + what + " from ServiceNow webservice ...");
+		return fetchRecords(what, location, username, Password, handler);
+	}
+
+	/**
+	 * Same as getRecords, but without updating the progress bar, so that it can be called from any thread
+	 */
+	int fetchRecords(String what, String location, String username, String Password, MyRecordHandler handler) throws MyException, IOException {
+		HttpGet request = new HttpGet(escape(location));
+		long requestStart = System.nanoTime();
+		Object event = MyFlightRecorder.beginHttpRequest();
+		try ( CloseableHttpResponse response = connect(request, username, Password, event) ) {
+			int totalCount = getTotalCount(response);
+			if ( this.logger != null ) this.logger.trace("      Getting " + what + " from ServiceNow webservice (" + (totalCount == -1 ? "unknown number of" : Integer.toString(totalCount)) + " records announced) ...");
+			return readRecords(response.getEntity(), what, what, requestStart, event, totalCount, handler);
+		} finally {
+			release(request);
+			MyFlightRecorder.endHttpRequest(event, what, location);
+		}
+	}
+
+	/**
+	 * Gets a ServiceNow table page by page and hands its records to the handler, in the order of the pages<br>
+	 * <br>
+	 * Each page holds at most pageSize records (the location must already contain sysparm_limit=pageSize). When several page workers are configured,
+	 * the next pages are downloaded and parsed in background threads using sysparm_offset while the current page is processed. Else, the pages are
+	 * got one after the other, following the Link rel="next" header sent by ServiceNow.<br>
+	 * <br>
+	 * The records are sorted on sys_id after any ORDERBY of the query, as ServiceNow does not guarantee the order of records that have the same sort
+	 * key (or no sort key) from one request to another: records could be skipped or got twice from one page to the next.<br>
+	 * <br>
+	 * The handler is always called from the calling thread.
+	 * @param maxRecords maximum number of records to get (zero or negative for no limit)
+	 * @return the number of records that have been handed to the handler
+	 */
+	public int getPagedRecords(String what, String location, String username, String Password, int maxRecords, MyRecordHandler handler) throws MyException, IOException {
+		if ( this.progressBar != null ) this.progressBar.setLabel("Getting " + what + " from ServiceNow webservice ...");
+		return fetchPagedRecords(what, location, username, Password, maxRecords, handler);
+	}
+
+	/**
+	 * Gets the records of several queries on the same table, one query after the other, and hands them to the handler as if they were a single table<br>
+	 * <br>
+	 * The handler is started once, with an unknown number of records as the queries are not counted beforehand, and ended once after the last query.
+	 * @param maxRecords maximum number of records to get from all the queries (zero or negative for no limit)
+	 * @return the number of records that have been handed to the handler
+	 */
+	public int getPagedRecords(String what, List<String> locations, String username, String Password, int maxRecords, MyRecordHandler handler) throws MyException, IOException {
+		if ( this.progressBar != null ) this.progressBar.setLabel("Getting " + what + " from ServiceNow webservice ...");
+		boolean[] stopped = new boolean[1];
+		int[] count = new int[1];
+		MyRecordHandler queryHandler = new MyRecordHandler() {
+			@Override
+			public void start(int total) {
+				// the handler is started once for all the queries
+			}
+
+			@Override
+			public boolean record(JsonNode jsonNode) throws MyException, IOException {
+				if ( !handler.record(jsonNode) ) {
+					stopped[0] = true;
+					return false;
+				}
+				// without paging, the sysparm_limit of each location applies to its own query only
+				++count[0];
+				return (maxRecords <= 0) || (count[0] < maxRecords);
+			}
+
+			@Override
+			public void end() {
+				// the handler is ended once for all the queries
+			}
+		};
+
+		handler.start(-1);
+		for ( int query = 0; (query < locations.size()) && !stopped[0] && ((maxRecords <= 0) || (count[0] < maxRecords)); ++query ) {
+			if ( this.logger != null ) this.logger.trace("      Getting " + what + " (query " + (query + 1) + "/" + locations.size() + ") ...");
+			fetchPagedRecords(what, locations.get(query), username, Password, (maxRecords <= 0) ? 0 : maxRecords - count[0], queryHandler);
+		}
+		if ( !stopped[0] )
+			handler.end();
+		return count[0];
+	}
+
+	/**
+	 * Same as getPagedRecords, but without updating the progress bar, so that it can be called from any thread
+	 */
+	int fetchPagedRecords(String what, String location, String username, String Password, int maxRecords, MyRecordHandler handler) throws MyException, IOException {
+		if ( this.pageSize <= 0 )
+			return fetchRecords(what, location, username, Password, handler);
+
+		String orderedLocation = addUniqueOrder(location);
+		int count = 0;
+		int pageNumber = 0;
+		boolean started = false;
+		if ( this.pageWorkers <= 1 ) {
+			String pageLocation = orderedLocation;
+			while ( pageLocation != null ) {
+				Page page = getPage(what, ++pageNumber, pageLocation, username, Password);
+				parsePage(page, what);
+				if ( !started ) {
+					handler.start(page.totalCount);
+					started = true;
+				}
+				for ( JsonNode jsonNode: page.records ) {
+					if ( (maxRecords > 0) && (count >= maxRecords) ) {
+						handler.end();
+						return count;
+					}
+					++count;
+					if ( !handler.record(jsonNode) )
+						return count;
+				}
+				if ( (page.records.size() < this.pageSize) || ((maxRecords > 0) && (count >= maxRecords)) )
+					pageLocation = null;
+				else if ( page.nextLink != null )
+					pageLocation = page.nextLink;
+				else
+					pageLocation = orderedLocation + "&sysparm_offset=" + count;
+			}
+			if ( started )
+				handler.end();
+			return count;
+		}
+
+		if ( this.logger != null ) this.logger.trace("      Getting " + what + " by pages of " + this.pageSize + " records with " + this.pageWorkers + " workers ...");
+		ExecutorService executor = Executors.newFixedThreadPool(this.pageWorkers);
+		ArrayDeque<Future<Page>> pendingPages = new ArrayDeque<Future<Page>>();
+		try {
+			int totalCount = -1;
+			int nextOffset = 0;
+			boolean lastPageReached = false;
+			while ( true ) {
+				// we keep all the workers busy, without asking for pages that we know are beyond the end of the table
+				int limit = (maxRecords > 0) ? maxRecords : Integer.MAX_VALUE;
+				if ( totalCount != -1 )
+					limit = Math.min(limit, totalCount);
+				while ( !lastPageReached && (pendingPages.size() < this.pageWorkers) && (nextOffset < limit) ) {
+					final int page = ++pageNumber;
+					final String pageLocation = orderedLocation + "&sysparm_offset=" + nextOffset;
+					pendingPages.add(executor.submit(new Callable<Page>() {
+						@Override
+						public Page call() throws MyException, IOException {
+							return getPage(what, page, pageLocation, username, Password);
+						}
+					}));
+					nextOffset += this.pageSize;
+				}
+
+				Future<Page> future = pendingPages.poll();
+				if ( future == null ) {
+					if ( started )
+						handler.end();
+					return count;
+				}
+				Page page = waitFor(future);
+				parsePage(page, what);
+
+				if ( !started ) {
+					totalCount = page.totalCount;
+					handler.start(totalCount);
+					started = true;
+				}
+				for ( JsonNode jsonNode: page.records ) {
+					if ( (maxRecords > 0) && (count >= maxRecords) ) {
+						handler.end();
+						return count;
+					}
+					++count;
+					if ( !handler.record(jsonNode) )
+						return count;
+				}
+				if ( page.records.size() < this.pageSize )
+					lastPageReached = true;
+				if ( lastPageReached && !pendingPages.isEmpty() ) {
+					// pages already requested after a short page are empty
+					for ( Future<Page> pending: pendingPages )
+						pending.cancel(true);
+					pendingPages.clear();
+				}
+			}
+		} finally {
+			for ( Future<Page> pending: pendingPages )
+				pending.cancel(true);
+			executor.shutdownNow();
+			if ( this.logger != null ) this.logger.trace("      Got " + count + " records in " + pageNumber + " pages.");
+		}
+	}
+
+	/**
+	 * Adds ORDERBYsys_id as the last sort key of the sysparm_query of the location, so that the pages got by offset neither overlap nor miss records
+	 */
+	static String addUniqueOrder(String location) {
+		int query = location.indexOf("sysparm_query=");
+		if ( query == -1 )
+			return location + "&sysparm_query=ORDERBYsys_id";
+
+		int end = location.indexOf('&', query);
+		if ( end == -1 )
+			end = location.length();
+		String condition = location.substring(query + "sysparm_query=".length(), end);
+		if ( condition.endsWith("ORDERBYsys_id") )
+			return location;
+		return location.substring(0, end) + (condition.isEmpty() ? "" : "^") + "ORDERBYsys_id" + location.substring(end);
+	}
+
+	/**
+	 * Gets a single page and keeps its records in memory, or only its bytes if a spill threshold is set (the page must then be parsed by parsePage)
+	 */
+	Page getPage(String what, int pageNumber, String location, String username, String Password) throws MyException, IOException {
+		Page page = new Page();
+		page.number = pageNumber;
+		String pageWhat = what + " (page " + pageNumber + ")";
+		HttpGet request = new HttpGet(escape(location));
+		long requestStart = System.nanoTime();
+		Object event = MyFlightRecorder.beginHttpRequest();
+		try ( CloseableHttpResponse response = connect(request, username, Password, event) ) {
+			page.totalCount = getTotalCount(response);
+			page.nextLink = getNextLink(response);
+			if ( this.logger != null ) this.logger.trace("      Getting " + pageWhat + " from ServiceNow webservice ...");
+			if ( this.spillThreshold > 0 )
+				page.buffer = download(response.getEntity(), pageWhat, what, requestStart, event);
+			else
+				readRecords(response.getEntity(), pageWhat, what, requestStart, event, page.totalCount, page.getHandler());
+		} finally {
+			release(request);
+			MyFlightRecorder.endHttpRequest(event, pageWhat, location);
+		}
+		return page;
+	}
+
+	/**
+	 * Parses the bytes of a page that has been downloaded without being parsed, and adds the parse time to the metrics of the table
+	 */
+	void parsePage(Page page, String what) throws MyException, IOException {
+		if ( page.buffer == null )
+			return;
+		long parseStart = System.nanoTime();
+		try {
+			parseRecords(page.buffer.getInputStream(), what + " (page " + page.number + ")", page.totalCount, page.getHandler(), new long[1]);
+		} finally {
+			page.buffer = null;
+			MyImportMetrics importMetrics = this.metrics;
+			MyImportMetrics.Requests requests = (importMetrics == null) ? null : importMetrics.getRequests(what);
+			if ( requests != null )
+				requests.addParse(System.nanoTime() - parseStart);
+		}
+	}
+
+	/**
+	 * Downloads a response without parsing it
+	 * @param table name of the table the metrics of the request are added to
+	 * @param requestStart time when the request has been sent (System.nanoTime())
+	 * @param event flight recorder event of the request (null if it is not recorded)
+	 */
+	MyResponseBuffer download(HttpEntity entity, String what, String table, long requestStart, Object event) throws MyException, IOException {
+		long readStart = System.nanoTime();
+		try ( CountingInputStream stream = new CountingInputStream(entity) ) {
+			MyResponseBuffer buffer = buffer(stream, what);
+			addMetrics(table, event, readStart - requestStart, stream, System.nanoTime() - readStart - stream.readTime);
+			return buffer;
+		} catch ( IOException err ) {
+			// the stream is closed when the request is aborted
+			checkAborted();
+			throw err;
+		}
+	}
+
+	/**
+	 * Reads the whole response, in memory or in a temporary file depending on the spill threshold
+	 */
+	MyResponseBuffer buffer(InputStream stream, String what) throws IOException {
+		MyResponseBuffer buffer = new MyResponseBuffer(stream, this.spillThreshold, getSpillDirectory());
+		if ( this.logger != null ) this.logger.trace("      Downloaded " + what + " (" + buffer.getSize() + " bytes) " + (buffer.isSpilled() ? "to a temporary file." : "in memory."));
+		return buffer;
+	}
+
+	/**
+	 * Waits for a page downloaded by a page worker, and rethrows the exception it got if any
+	 */
+	static Page waitFor(Future<Page> future) throws MyException, IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MyException("Interrupted while waiting for ServiceNow.", e);
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof MyException )
+				throw (MyException)e.getCause();
+			if ( e.getCause() instanceof IOException )
+				throw (IOException)e.getCause();
+			throw new MyException("Failed to get data from ServiceNow.", e.getCause());
+		}
+	}
+
+	/**
+	 * Reads the response and hands the records of the "result" array to the handler<br>
+	 * The response is parsed while it is received, or downloaded first if a spill threshold is set.
+	 * @param table name of the table the metrics of the request are added to
+	 * @param requestStart time when the request has been sent (System.nanoTime())
+	 * @param event flight recorder event of the request (null if it is not recorded)
+	 */
+	int readRecords(HttpEntity entity, String what, String table, long requestStart, Object event, int totalCount, MyRecordHandler handler) throws MyException, IOException {
+		long readStart = System.nanoTime();
+		long[] handlerTime = new long[1];
+		CountingInputStream counter = null;
+		try ( CountingInputStream stream = counter = new CountingInputStream(entity) ) {
+			InputStream content = stream;
+			if ( this.spillThreshold > 0 ) {
+				content = buffer(stream, what).getInputStream();
+			}
+			return parseRecords(content, what, totalCount, handler, handlerTime);
+		} catch ( IOException err ) {
+			// the stream is closed when the request is aborted
+			checkAborted();
+			throw err;
+		} finally {
+			// the time spent in the handler is measured by the handler itself
+			if ( counter != null )
+				addMetrics(table, event, readStart - requestStart, counter, System.nanoTime() - readStart - counter.readTime - handlerTime[0]);
+		}
+	}
+
+	/**
+	 * Parses the JSON response and hands the records of the "result" array to the handler
+	 * @param handlerTime array whose first element gets the time spent in the handler, in nanoseconds
+	 */
+	int parseRecords(InputStream content, String what, int totalCount, MyRecordHandler handler, long[] handlerTime) throws MyException, IOException {
+		int count = 0;
+		try ( JsonParser jsonParser = MyConnection.jsonFactory.createJsonParser(content) ) {
+			if ( jsonParser.nextToken() != JsonToken.START_OBJECT )
+				throw new MyException("We did not receive JSON data !!!");
+
+			while ( jsonParser.nextToken() == JsonToken.FIELD_NAME ) {
+				String fieldName = jsonParser.getCurrentName();
+				JsonToken token = jsonParser.nextToken();
+				if ( fieldName.equals("result") ) {
+					if ( token != JsonToken.START_ARRAY )
+						throw new MyException("Error, we did not received the expected JSON array.");
+					handler.start(totalCount);
+					while ( jsonParser.nextToken() == JsonToken.START_OBJECT ) {
+						checkAborted();
+						JsonNode jsonNode = jsonParser.readValueAsTree();
+						++count;
+						long handlerStart = System.nanoTime();
+						boolean more = handler.record(jsonNode);
+						handlerTime[0] += System.nanoTime() - handlerStart;
+						if ( !more ) {
+							if ( this.logger != null ) this.logger.trace("      Stopped reading " + what + " after " + count + " records.");
+							return count;
+						}
+					}
+					handler.end();
+				} else if ( fieldName.equals("error") ) {
+					JsonNode node = jsonParser.readValueAsTree();
+					JsonNode message = node.get("message");
+					throw new MyException("Error while retrieving data from the ServiceNow webservice (" + (message == null ? node.toString() : message.asText()) + ")");
+				} else
+					jsonParser.skipChildren();
+			}
+		} catch ( JsonParseException err ) {
+			checkAborted();
+			throw new MyException("Error while retrieving data from the ServiceNow webservice\n\nThe data receied is in an unknow format.", err);
+		} catch ( IOException err ) {
+			// the stream is closed when the request is aborted
+			checkAborted();
+			throw err;
+		} finally {
+			if ( this.logger != null ) this.logger.trace("      Read " + count + " records from ServiceNow webservice.");
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of records announced by ServiceNow in the X-Total-Count header
+	 * @return the number of records, or -1 if unknown (for instance if sysparm_no_count is set)
+	 */
+	static int getTotalCount(CloseableHttpResponse response) {
+		Header totalCountHeader = response.getFirstHeader("X-Total-Count");
+		if ( totalCountHeader != null ) {
+			try {
+				return Integer.parseInt(totalCountHeader.getValue().trim());
+			} catch ( @SuppressWarnings("unused") NumberFormatException ign ) {
+				// we just do not know how many records we will get
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the URL of the next page from the Link header sent by ServiceNow
+	 * @return the URL of the next page, or null if there is no next page
+	 */
+	static String getNextLink(CloseableHttpResponse response) {
+		Header linkHeader = response.getFirstHeader("Link");
+		if ( linkHeader != null ) {
+			Matcher matcher = MyConnection.nextLinkPattern.matcher(linkHeader.getValue());
+			if ( matcher.find() )
+				return matcher.group(1);
+		}
+		return null;
+	}
+
+	/**
+	 * Sends the request to ServiceNow and checks the response code<br>
+	 * The response must be closed by the caller to give the connection back to the pool, and the request must then be released.
+	 * @param event flight recorder event of the request, that gets the response code (null if it is not recorded)
+	 */
+	CloseableHttpResponse connect(HttpGet request, String username, String Password, Object event) throws MyException, IOException {
+		// the request is registered before being sent so that it can be aborted while it is waiting for ServiceNow
+		this.activeRequests.add(request);
+		checkAborted();
+
+		String userpass = username + ":" + Password;        
+		request.setHeader("Authorization",  "Basic " + new String(Base64.getEncoder().encode(userpass.getBytes()), StandardCharsets.UTF_8));
+		request.setHeader("Accept", "application/json");
+		if ( this.compression )
+			request.setHeader("Accept-Encoding", "gzip, deflate");
+
+		CloseableHttpResponse response;
+		try {
+			response = getHttpClient().execute(request);
+		} catch (IOException e) {
+			checkAborted();
+			throw e;
+		}
+		int status = response.getStatusLine().getStatusCode();
+		MyFlightRecorder.setHttpStatus(event, status);
+		if ( status != 200) {
+			try {
+				// we read the content to be able to reuse the connection
+				EntityUtils.consume(response.getEntity());
+			} finally {
+				response.close();
+			}
+			throw new MyException("Error reported by ServiceNow website : code " + Integer.toString(status)); 
+		}
+		if ( response.getEntity() == null ) {
+			response.close();
+			throw new MyException("ServiceNow did not send any data.");
+		}
+		return response;
+	}
+
+	/**
+	 * Escapes the characters that ServiceNow accepts in the URLs but that are not valid in an URI, like the ^ that separates the conditions of
+	 * sysparm_query, or the spaces of the dates.
+	 */
+	static String escape(String location) {
+		StringBuilder escaped = null;
+		for ( int i = 0; i < location.length(); ++i ) {
+			char c = location.charAt(i);
+			if ( (c <= ' ') || ("\"<>\\^`{|}".indexOf(c) != -1) ) {
+				if ( escaped == null )
+					escaped = new StringBuilder(location.substring(0, i));
+				escaped.append(String.format("%%%02X", Integer.valueOf(c)));
+			} else if ( escaped != null )
+				escaped.append(c);
+		}
+		return (escaped == null) ? location : escaped.toString();
+	}
+
+	/**
+	 * Adds a request to the metrics of the table, and its size to its flight recorder event
+	 * @param timeToFirstByte time between the request and the response headers, in nanoseconds
+	 * @param parseTime time spent decompressing and reading the response without waiting for the network, in nanoseconds
+	 */
+	void addMetrics(String table, Object event, long timeToFirstByte, CountingInputStream stream, long parseTime) {
+		MyFlightRecorder.setHttpBytes(event, stream.total, stream.received);
+		MyImportMetrics importMetrics = this.metrics;
+		MyImportMetrics.Requests requests = (importMetrics == null) ? null : importMetrics.getRequests(table);
+		if ( requests != null )
+			requests.add(timeToFirstByte, stream.readTime, stream.total, stream.received, parseTime);
+	}
+
+	/**
+	 * Forgets a request once its response has been processed
+	 */
+	void release(HttpGet request) {
+		this.activeRequests.remove(request);
+	}
+
+	/**
+	 * Records of a page got from ServiceNow
+	 */
+	static class Page {
+		int number = 0;
+		List<JsonNode> records = new ArrayList<JsonNode>();
+		int totalCount = -1;
+		String nextLink = null;
+		// bytes of the page, when it has been downloaded without being parsed
+		MyResponseBuffer buffer = null;
+
+		/**
+		 * @return a handler that adds the records to the page
+		 */
+		MyRecordHandler getHandler() {
+			return new MyRecordHandler() {
+				@Override
+				public void start(int count) {
+					// nothing to do
+				}
+
+				@Override
+				public boolean record(JsonNode jsonNode) {
+					Page.this.records.add(jsonNode);
+					return true;
+				}
+
+				@Override
+				public void end() {
+					// nothing to do
+				}
+			};
+		}
+	}
+
+	/**
+	 * Input stream that decompresses the content of a response if needed, and that counts the bytes received from the webservice, the time
+	 * spent waiting for them, and the bytes of the decompressed content
+	 */
+	class CountingInputStream extends FilterInputStream {
+		long total = 0;
+		long received = 0;
+		long nextReport = 0;
+		long readTime = 0;
+
+		CountingInputStream(HttpEntity entity) throws IOException {
+			super(null);
+			this.in = decode(entity.getContentEncoding(), new ReceivedInputStream(entity.getContent()));
+		}
+
+		/**
+		 * @return the content, decompressed on the fly according to the Content-Encoding header
+		 */
+		InputStream decode(Header contentEncoding, InputStream content) throws IOException {
+			String encoding = (contentEncoding == null) ? "" : contentEncoding.getValue().trim().toLowerCase();
+			switch ( encoding ) {
+				case "":
+				case "identity":
+					return content;
+				case "gzip":
+				case "x-gzip":
+					return new GZIPInputStream(content, 65536);
+				case "deflate":
+					return new DeflateInputStream(content);
+				default:
+					content.close();
+					throw new IOException("Unsupported content encoding \"" + encoding + "\" received from ServiceNow webservice.");
+			}
+		}
+
+		/**
+		 * Stream of the bytes received from the network, before decompression
+		 */
+		class ReceivedInputStream extends FilterInputStream {
+			ReceivedInputStream(InputStream content) {
+				super(content);
+			}
+
+			@Override
+			public int read() throws IOException {
+				long readStart = System.nanoTime();
+				int b = super.read();
+				CountingInputStream.this.readTime += System.nanoTime() - readStart;
+				if ( b != -1 )
+					++CountingInputStream.this.received;
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				long readStart = System.nanoTime();
+				int nb = super.read(b, off, len);
+				CountingInputStream.this.readTime += System.nanoTime() - readStart;
+				if ( nb > 0 )
+					CountingInputStream.this.received += nb;
+				return nb;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if ( b != -1 )
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int nb = super.read(b, off, len);
+			if ( nb > 0 )
+				count(nb);
+			return nb;
+		}
+
+		void count(int nb) {
+			this.total += nb;
+			if ( this.total >= this.nextReport ) {
+				this.nextReport = this.total + 1048576;
+				if ( MyConnection.this.logger != null ) MyConnection.this.logger.trace("      Read " + this.total/1024 + " KB from ServiceNow webservice.");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			if ( MyConnection.this.logger != null ) MyConnection.this.logger.trace("      Read " + this.total + " bytes from ServiceNow webservice" + (this.received == this.total ? "." : " (" + this.received + " bytes received)."));
+		}
+	}
+}
@@ -1,9 +1,13 @@
-package org.archicontribs.servicenow;
-
-public class MyException extends Exception {
-    private static final long serialVersionUID = -8060893532800513872L;
-    
-    public MyException(String msg) {
-        super(msg);
-    }
-}
+package org.archicontribs.servicenow;
+
+public class MyException extends Exception {
+    private static final long serialVersionUID = -8060893532800513872L;
+    
+    public MyException(String msg) {
+        super(msg);
+    }
+    
+    public MyException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
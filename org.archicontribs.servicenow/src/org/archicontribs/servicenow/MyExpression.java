@@ -0,0 +1,106 @@
+package org.archicontribs.servicenow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Mapping expression of the ini file, analysed once so that it can be evaluated for each record without being parsed again<br>
+ * <br>
+ * An expression is either:<ul>
+ * <li><b>"constant"</b> a string between quotes, taken as is</li>
+ * <li><b>${variable}</b> a string between ${ and }, expanded by MyVariable</li>
+ * <li><b>field</b> a ServiceNow field</li>
+ * <li><b>field#subfield[#subfield...]</b> a ServiceNow field got by following reference links</li>
+ * </ul>
+ * A path is a list of expressions separated by slashes, each of them being evaluated separately.
+ */
+public class MyExpression {
+	enum Kind { CONSTANT, VARIABLE, FIELD, LINK, PATH }
+
+	// same regex as the one used by getPathFields
+	static final Pattern pathPattern = Pattern.compile("([^\"][^/]*|\".+?\")\\s*");
+
+	Kind kind;
+	String expression;
+
+	// constant value, or variable to expand
+	String value = null;
+
+	// field, or fields separated by # to follow the reference links
+	String[] subFields = null;
+
+	// path segments, and whether a slash must be inserted before them
+	List<MyExpression> segments = null;
+	List<Boolean> rooted = null;
+
+	MyExpression(Kind theKind, String theExpression) {
+		this.kind = theKind;
+		this.expression = theExpression;
+	}
+
+	/**
+	 * Analyses an expression
+	 * @return the compiled expression, or null if the expression is null
+	 */
+	public static MyExpression compile(String expression) {
+		if ( expression == null )
+			return null;
+
+		int length = expression.length();
+
+		if ( (length >= 2) && expression.startsWith("\"") && expression.endsWith("\"") ) {
+			MyExpression result = new MyExpression(Kind.CONSTANT, expression);
+			result.value = expression.substring(1, length-1);
+			return result;
+		}
+
+		if ( (length >= 3) && expression.startsWith("${") && expression.endsWith("}") ) {
+			MyExpression result = new MyExpression(Kind.VARIABLE, expression);
+			result.value = expression;
+			return result;
+		}
+
+		MyExpression result = new MyExpression(expression.indexOf('#') == -1 ? Kind.FIELD : Kind.LINK, expression);
+		result.subFields = expression.split("#");
+		return result;
+	}
+
+	/**
+	 * @return a constant expression whose value has already been got for the expression (the value may be null if the field does not exist)
+	 */
+	static MyExpression constant(String theExpression, String value) {
+		MyExpression result = new MyExpression(Kind.CONSTANT, theExpression);
+		result.value = value;
+		return result;
+	}
+
+	/**
+	 * Analyses a path, each folder name being an expression
+	 * @return the compiled path, or null if the path is null
+	 */
+	public static MyExpression compilePath(String pathname) {
+		if ( pathname == null )
+			return null;
+
+		MyExpression result = new MyExpression(Kind.PATH, pathname);
+		result.segments = new ArrayList<MyExpression>();
+		result.rooted = new ArrayList<Boolean>();
+
+		// we remove the first char if it is a slash
+		String path = pathname.startsWith("/") ? pathname.substring(1) : pathname;
+
+		Matcher value = pathPattern.matcher(path);
+		while (value.find()) {
+			String folderName = value.group(1);
+			boolean slash = folderName.startsWith("/");
+			if ( slash )
+				folderName = folderName.substring(1);
+			result.segments.add(folderName.length() > 0 ? compile(folderName) : null);
+			result.rooted.add(Boolean.valueOf(slash));
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,179 @@
+package org.archicontribs.servicenow;
+
+/**
+ * Emits JDK Flight Recorder events for the import phases, the tables, the HTTP requests, the reference links and the changes to the model<br>
+ * <br>
+ * The events can be seen in JDK Mission Control, next to the GC and allocation data, when a recording is started, for instance by adding
+ * -XX:StartFlightRecording=filename=import.jfr in Archi.ini. They are not created when the flight recorder is not recording them.<br>
+ * <br>
+ * The jdk.jfr package is available on Java 11 and on Java 8 since update 262. On older JVMs, the methods do nothing: the begin methods
+ * return null, and the other methods ignore the null events.
+ */
+public class MyFlightRecorder {
+	static final boolean available = isAvailable();
+
+	static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, MyFlightRecorder.class.getClassLoader());
+			return true;
+		} catch ( @SuppressWarnings("unused") ClassNotFoundException | LinkageError ign ) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the event of an HTTP request, or null if it is not recorded
+	 */
+	static Object beginHttpRequest() {
+		if ( !available )
+			return null;
+		MyFlightRecorderEvents.HttpRequest event = new MyFlightRecorderEvents.HttpRequest();
+		if ( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void setHttpStatus(Object event, int status) {
+		if ( event != null )
+			((MyFlightRecorderEvents.HttpRequest)event).status = status;
+	}
+
+	static void setHttpBytes(Object event, long bytes, long received) {
+		if ( event != null ) {
+			((MyFlightRecorderEvents.HttpRequest)event).bytes = bytes;
+			((MyFlightRecorderEvents.HttpRequest)event).bytesReceived = received;
+		}
+	}
+
+	static void endHttpRequest(Object event, String what, String url) {
+		if ( event != null ) {
+			MyFlightRecorderEvents.HttpRequest httpRequest = (MyFlightRecorderEvents.HttpRequest)event;
+			httpRequest.end();
+			if ( httpRequest.shouldCommit() ) {
+				httpRequest.what = what;
+				httpRequest.url = url;
+				httpRequest.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the event of a phase of the import, or null if it is not recorded
+	 */
+	static Object beginPhase() {
+		if ( !available )
+			return null;
+		MyFlightRecorderEvents.Phase event = new MyFlightRecorderEvents.Phase();
+		if ( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void endPhase(Object event, String phase) {
+		if ( event != null ) {
+			MyFlightRecorderEvents.Phase phaseEvent = (MyFlightRecorderEvents.Phase)event;
+			phaseEvent.end();
+			if ( phaseEvent.shouldCommit() ) {
+				phaseEvent.phase = phase;
+				phaseEvent.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the event of the processing of a table, or null if it is not recorded
+	 */
+	static Object beginTable() {
+		if ( !available )
+			return null;
+		MyFlightRecorderEvents.Table event = new MyFlightRecorderEvents.Table();
+		if ( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void endTable(Object event, String phase, String name, String serviceNowTable, long records, int created, int updated, int removed) {
+		if ( event != null ) {
+			MyFlightRecorderEvents.Table table = (MyFlightRecorderEvents.Table)event;
+			table.end();
+			if ( table.shouldCommit() ) {
+				table.phase = phase;
+				table.name = name;
+				table.serviceNowTable = serviceNowTable;
+				table.records = records;
+				table.created = created;
+				table.updated = updated;
+				table.removed = removed;
+				table.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the event of a reference link followed on ServiceNow, or null if it is not recorded
+	 */
+	static Object beginReferenceLink() {
+		if ( !available )
+			return null;
+		MyFlightRecorderEvents.ReferenceLink event = new MyFlightRecorderEvents.ReferenceLink();
+		if ( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void endReferenceLink(Object event, String field, String url, boolean found) {
+		if ( event != null ) {
+			MyFlightRecorderEvents.ReferenceLink referenceLink = (MyFlightRecorderEvents.ReferenceLink)event;
+			referenceLink.end();
+			if ( referenceLink.shouldCommit() ) {
+				referenceLink.field = field;
+				referenceLink.url = url;
+				referenceLink.found = found;
+				referenceLink.commit();
+			}
+		}
+	}
+
+	/**
+	 * @return the event of a batch of changes to the model, or null if it is not recorded
+	 */
+	static Object beginModelBatch() {
+		if ( !available )
+			return null;
+		MyFlightRecorderEvents.ModelBatch event = new MyFlightRecorderEvents.ModelBatch();
+		if ( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void endModelBatch(Object event) {
+		if ( event != null )
+			((MyFlightRecorderEvents.ModelBatch)event).commit();
+	}
+
+	/**
+	 * @return the event of a slice of records applied to the model on the UI thread, or null if it is not recorded
+	 */
+	static Object beginModelApply() {
+		if ( !available )
+			return null;
+		MyFlightRecorderEvents.ModelApply event = new MyFlightRecorderEvents.ModelApply();
+		if ( !event.isEnabled() )
+			return null;
+		event.begin();
+		return event;
+	}
+
+	static void endModelApply(Object event, int records) {
+		if ( event != null ) {
+			MyFlightRecorderEvents.ModelApply modelApply = (MyFlightRecorderEvents.ModelApply)event;
+			modelApply.records = records;
+			modelApply.commit();
+		}
+	}
+}
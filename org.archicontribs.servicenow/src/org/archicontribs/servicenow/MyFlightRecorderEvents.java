@@ -0,0 +1,116 @@
+package org.archicontribs.servicenow;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the import<br>
+ * <br>
+ * This class needs the jdk.jfr package, so it must only be used through MyFlightRecorder, which checks that the package is available.
+ */
+class MyFlightRecorderEvents {
+	static final String CATEGORY = "ServiceNow import";
+
+	@Name("org.archicontribs.servicenow.HttpRequest")
+	@Label("HTTP Request")
+	@Description("Request sent to the ServiceNow web service, from the request to the end of the response")
+	@Category({"Archi", CATEGORY})
+	@StackTrace(false)
+	static class HttpRequest extends Event {
+		@Label("What")
+		String what;
+
+		@Label("URL")
+		String url;
+
+		@Label("Status")
+		@Description("HTTP status code, or 0 if no response has been received")
+		int status;
+
+		@Label("Bytes")
+		@Description("Size of the response, once decompressed")
+		@DataAmount
+		long bytes;
+
+		@Label("Bytes Received")
+		@Description("Number of bytes received from the network, less than the size of the response if it is compressed")
+		@DataAmount
+		long bytesReceived;
+	}
+
+	@Name("org.archicontribs.servicenow.Phase")
+	@Label("Import Phase")
+	@Category({"Archi", CATEGORY})
+	@StackTrace(false)
+	static class Phase extends Event {
+		@Label("Phase")
+		String phase;
+	}
+
+	@Name("org.archicontribs.servicenow.Table")
+	@Label("Table Processing")
+	@Description("Processing of the records of a table, from the first one to the last one")
+	@Category({"Archi", CATEGORY})
+	@StackTrace(false)
+	static class Table extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Name")
+		String name;
+
+		@Label("ServiceNow Table")
+		String serviceNowTable;
+
+		@Label("Records")
+		long records;
+
+		@Label("Created")
+		int created;
+
+		@Label("Updated")
+		int updated;
+
+		@Label("Removed")
+		int removed;
+	}
+
+	@Name("org.archicontribs.servicenow.ReferenceLink")
+	@Label("Reference Link")
+	@Description("Reference link followed to get a field#subfield value that was not in the reference cache")
+	@Category({"Archi", CATEGORY})
+	static class ReferenceLink extends Event {
+		@Label("Field")
+		String field;
+
+		@Label("URL")
+		String url;
+
+		@Label("Found")
+		boolean found;
+	}
+
+	@Name("org.archicontribs.servicenow.ModelBatch")
+	@Label("Model Batch")
+	@Description("Changes applied to the model while Archi's model tree ignores the notifications, up to the refresh of the model tree")
+	@Category({"Archi", CATEGORY})
+	@StackTrace(false)
+	static class ModelBatch extends Event {
+		// nothing more than the duration
+	}
+
+	@Name("org.archicontribs.servicenow.ModelApply")
+	@Label("Model Apply")
+	@Description("Slice of records applied to the model on the UI thread")
+	@Category({"Archi", CATEGORY})
+	@StackTrace(false)
+	static class ModelApply extends Event {
+		@Label("Records")
+		int records;
+	}
+}
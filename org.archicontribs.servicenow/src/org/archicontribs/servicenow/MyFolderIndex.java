@@ -0,0 +1,115 @@
+package org.archicontribs.servicenow;
+
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.archimatetool.model.FolderType;
+import com.archimatetool.model.IArchimateConcept;
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IFolder;
+
+/**
+ * Index of the model's folders by path<br>
+ * <br>
+ * The folders are organised as a trie whose roots are the default folders of the model and whose branches are the folder names. The subfolders
+ * of a folder are indexed the first time a path goes through it, and the folders created by the import are added to the trie as they are created.
+ * The paths that have already been resolved, and the paths of the folders that have already been computed, are kept as well, so that resolving
+ * a folder, or getting the path of a folder, is a hash lookup.<br>
+ * <br>
+ * The index is built for one import only, during which the folders are not renamed nor moved.
+ */
+public class MyFolderIndex {
+	static final Pattern folderPattern = Pattern.compile("([^/\"][^/]*|\".+?\")\\s*");
+
+	class Node {
+		IFolder folder;
+		HashMap<String, Node> children = null;
+
+		Node(IFolder theFolder) {
+			this.folder = theFolder;
+		}
+
+		Node getChild(String name) {
+			if ( this.children == null ) {
+				this.children = new HashMap<String, Node>();
+				// if several subfolders have got the same name, the first one is used
+				for ( IFolder subFolder: this.folder.getFolders() ) {
+					if ( !this.children.containsKey(subFolder.getName()) )
+						this.children.put(subFolder.getName(), new Node(subFolder));
+				}
+			}
+
+			Node child = this.children.get(name);
+			if ( child == null ) {
+				IFolder newFolder = IArchimateFactory.eINSTANCE.createFolder();
+				newFolder.setName(name);
+				this.folder.getFolders().add(newFolder);
+				child = new Node(newFolder);
+				this.children.put(name, child);
+			}
+			return child;
+		}
+	}
+
+	// trie of the folders, by default folder
+	HashMap<IFolder, Node> roots = new HashMap<IFolder, Node>();
+
+	// folders already resolved, by default folder and path
+	HashMap<IFolder, HashMap<String, IFolder>> folders = new HashMap<IFolder, HashMap<String, IFolder>>();
+
+	// paths of the folders already computed
+	HashMap<IFolder, String> paths = new HashMap<IFolder, String>();
+
+	/**
+	 * Gets the folder of the concept's default folder that corresponds to the path, creating the missing folders
+	 */
+	public IFolder getFolder(IArchimateModel model, IArchimateConcept concept, String folderPath) {
+		IFolder defaultFolder = model.getDefaultFolderForObject(concept);
+
+		HashMap<String, IFolder> resolved = this.folders.get(defaultFolder);
+		if ( resolved == null ) {
+			resolved = new HashMap<String, IFolder>();
+			this.folders.put(defaultFolder, resolved);
+		}
+
+		IFolder folder = resolved.get(folderPath);
+		if ( folder == null ) {
+			Node node = this.roots.get(defaultFolder);
+			if ( node == null ) {
+				node = new Node(defaultFolder);
+				this.roots.put(defaultFolder, node);
+			}
+
+			// we remove the first char if it is a slash
+			String path = folderPath.startsWith("/") ? folderPath.substring(1) : folderPath;
+
+			Matcher m = folderPattern.matcher(path);
+			while (m.find())
+				node = node.getChild(m.group(1));
+
+			folder = node.folder;
+			resolved.put(folderPath, folder);
+		}
+
+		return folder;
+	}
+
+	/**
+	 * Gets the path of a folder, from the model's default folder
+	 */
+	public String getFolderPath(IFolder folder) {
+		if ( (folder == null) || (folder.getType().getValue() != FolderType.USER_VALUE) )
+			return "";
+
+		String path = this.paths.get(folder);
+		if ( path == null ) {
+			String parentPath = (folder.eContainer() instanceof IFolder) ? getFolderPath((IFolder)folder.eContainer()) : "";
+			path = parentPath.isEmpty() ? folder.getName() : parentPath + "/" + folder.getName();
+			this.paths.put(folder, path);
+		}
+
+		return path;
+	}
+}
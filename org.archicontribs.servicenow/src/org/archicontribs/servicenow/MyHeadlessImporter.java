@@ -0,0 +1,99 @@
+package org.archicontribs.servicenow;
+
+import java.io.File;
+
+import org.apache.log4j.Logger;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+import com.archimatetool.editor.model.IArchiveManager;
+import com.archimatetool.editor.model.IEditorModelManager;
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Headless application that imports from ServiceNow into a model file, without any UI<br>
+ * <br>
+ * It loads the model, runs the import described in the INI file, and saves the model if the import has succeeded. Everything is reported
+ * in the log configured in the INI file. It is launched by Archi:<br>
+ * <br>
+ * Archi -application org.archicontribs.servicenow.headless -nosplash -consoleLog &lt;ini file&gt; &lt;model file&gt;<br>
+ * <br>
+ * The exit code is 0 if the model has been imported and saved, 1 if the import has failed, and 2 if the arguments are wrong.
+ */
+public class MyHeadlessImporter implements IApplication {
+	static final Integer EXIT_FAILED = Integer.valueOf(1);
+	static final Integer EXIT_USAGE = Integer.valueOf(2);
+
+	MyImporter importer = null;
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[])context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		context.applicationRunning();
+
+		// the launcher may leave its own options (like -showsplash) in the arguments
+		String iniFilename = null;
+		String modelFilename = null;
+		for ( int i = 0; (args != null) && (i < args.length); ++i ) {
+			if ( args[i].startsWith("-") )
+				continue;
+			if ( iniFilename == null )
+				iniFilename = args[i];
+			else if ( modelFilename == null )
+				modelFilename = args[i];
+		}
+
+		if ( (iniFilename == null) || (modelFilename == null) ) {
+			System.err.println("Usage: Archi -application org.archicontribs.servicenow.headless -nosplash -consoleLog <ini file> <model file>");
+			return EXIT_USAGE;
+		}
+
+		File iniFile = new File(iniFilename);
+		File modelFile = new File(modelFilename);
+		if ( !iniFile.canRead() || !modelFile.canRead() ) {
+			System.err.println("Cannot read " + (iniFile.canRead() ? modelFile : iniFile).getAbsolutePath());
+			return EXIT_USAGE;
+		}
+
+		// like Archi's own command line, we load the model without opening it in the models tree, which does not need any workbench.
+		// The model manager reloads the models that were opened in the last Archi session, so the model may already be loaded.
+		IArchimateModel model = null;
+		if ( IEditorModelManager.INSTANCE.isModelLoaded(modelFile) ) {
+			for ( IArchimateModel loadedModel: IEditorModelManager.INSTANCE.getModels() ) {
+				if ( modelFile.equals(loadedModel.getFile()) )
+					model = loadedModel;
+			}
+		} else
+			model = IEditorModelManager.INSTANCE.loadModel(modelFile);
+		if ( model == null ) {
+			System.err.println("Cannot load model " + modelFile.getAbsolutePath());
+			return EXIT_FAILED;
+		}
+
+		this.importer = new MyImporter();
+		boolean success = this.importer.doImport(model, iniFile.getAbsolutePath());
+		if ( this.importer.getMetrics() != null )
+			System.out.println(this.importer.getMetrics().getSummary());
+		if ( !success ) {
+			System.err.println("The import has failed, the model has not been saved (please check the log for details).");
+			return EXIT_FAILED;
+		}
+
+		IArchiveManager archiveManager = (IArchiveManager)model.getAdapter(IArchiveManager.class);
+		if ( archiveManager == null ) {
+			System.err.println("Cannot save model " + modelFile.getAbsolutePath());
+			return EXIT_FAILED;
+		}
+		archiveManager.saveModel();
+		Logger.getLogger("SNowPlugin").info("Model saved to " + modelFile.getAbsolutePath());
+
+		return IApplication.EXIT_OK;
+	}
+
+	@Override
+	public void stop() {
+		MyImporter runningImporter = this.importer;
+		if ( runningImporter != null )
+			runningImporter.cancel();
+	}
+}
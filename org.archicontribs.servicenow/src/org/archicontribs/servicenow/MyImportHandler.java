@@ -0,0 +1,103 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+
+import com.archimatetool.editor.model.ISelectedModelImporter;
+import com.archimatetool.model.IArchimateModel;
+
+/**
+ * Import handler of Archi's File/Import menu<br>
+ * <br>
+ * Asks for the INI file, then runs the import in a background job so that the UI stays responsive. The records are got from ServiceNow in the
+ * job, and the model is updated on the UI thread.
+ */
+public class MyImportHandler implements ISelectedModelImporter {
+	// family of the import jobs: Archi creates a new handler for each import, so the running import is found through the job manager
+	static final Object IMPORT_JOB_FAMILY = MyImportHandler.class;
+
+	@Override
+	public void doImport(IArchimateModel model) throws IOException {
+		if ( Job.getJobManager().find(IMPORT_JOB_FAMILY).length != 0 ) {
+			@SuppressWarnings("unused")
+			MyPopup popup = new MyPopup(Logger.getLogger("SNowPlugin"), Level.WARN, "An import is already running.");
+			return;
+		}
+
+		// we ask for the name of the ini file that contains the configuration of the plugin
+		String iniFilename;
+		if ( (iniFilename = askForIniFile()) == null )
+			return;
+
+		Display display = Display.getCurrent();
+		MyImporter importer = new MyImporter();
+		importer.setUIExecutor(new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				display.syncExec(task);
+			}
+		});
+
+		Job importJob = new Job(MyImporter.title) {
+			@Override
+			protected IStatus run(IProgressMonitor progressMonitor) {
+				progressMonitor.beginTask(MyImporter.title, IProgressMonitor.UNKNOWN);
+				importer.setProgressMonitor(progressMonitor);
+				try {
+					if ( importer.doImport(model, iniFilename) && (importer.getMetrics() != null) )
+						showSummary(importer.getMetrics().getSummary());
+				} catch (Exception e) {
+					@SuppressWarnings("unused")
+					MyPopup popup = new MyPopup(Logger.getLogger("SNowPlugin"), Level.FATAL, "The import has failed.", e);
+				} finally {
+					progressMonitor.done();
+				}
+				return progressMonitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+			}
+
+			@Override
+			protected void canceling() {
+				// we abort the requests that are waiting for ServiceNow
+				importer.cancel();
+			}
+
+			@Override
+			public boolean belongsTo(Object family) {
+				return family == IMPORT_JOB_FAMILY;
+			}
+		};
+		importJob.setUser(true);
+		importJob.setPriority(Job.LONG);
+		importJob.schedule();
+	}
+
+	/**
+	 * Shows the summary of the import metrics, without waiting for the user to close the popup
+	 */
+	private static void showSummary(String summary) {
+		Display.getDefault().asyncExec(new Runnable() {
+			@Override
+			public void run() {
+				MessageDialog.openInformation(Display.getDefault().getActiveShell(), MyImporter.title, summary);
+			}
+		});
+	}
+
+	private static String askForIniFile() {
+		FileDialog dialog = new FileDialog(Display.getCurrent().getActiveShell());
+		dialog.setText(MyImporter.title+" - Please select your INI file ...");
+		String[] ext = {"*.ini","*"};
+		dialog.setFilterExtensions(ext);
+		return dialog.open();
+	}
+}
@@ -0,0 +1,405 @@
+package org.archicontribs.servicenow;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Metrics of an import, phase by phase and table by table<br>
+ * <br>
+ * For each table, the metrics tell where the time has been spent:
+ *    - url_build: building the ServiceNow URL from the INI file
+ *    - time_to_first_byte: waiting for ServiceNow to answer the requests
+ *    - download: reading the bytes of the answers
+ *    - parse: decompressing and parsing the JSON records
+ *    - map: getting the fields of the records and the records they link to, on the import thread
+ *    - apply: expanding the ${variables} that depend on the elements and relations, and changing the model (on the UI thread when the
+ *      model is changed in batches)
+ * <br>
+ * The requests are attributed to the table whose name they have been sent for; the other requests (reference links, reference cache
+ * revalidation) are attributed to the phase's references. The times of the requests are cumulated, so they may exceed the duration of the
+ * phase when several requests are sent in parallel.<br>
+ * <br>
+ * The metrics are saved as a JSON report and summarized at the end of the import. The phases and the processing of the tables are also
+ * recorded as flight recorder events (cf. MyFlightRecorder).
+ */
+public class MyImportMetrics {
+	static final JsonFactory jsonFactory = new JsonFactory();
+
+	String modelName;
+	String iniFilename;
+	long startTime = System.currentTimeMillis();
+	long endTime = 0;
+	boolean success = false;
+
+	List<Phase> phases = new ArrayList<Phase>();
+	volatile Phase currentPhase = null;
+
+	/**
+	 * Requests sent to ServiceNow (the times are in nanoseconds)
+	 */
+	static class Requests {
+		int count = 0;
+		long timeToFirstByte = 0;
+		long download = 0;
+		long bytes = 0;
+		long received = 0;
+		long parse = 0;
+
+		/**
+		 * @param requestBytes size of the (decompressed) response
+		 * @param requestReceived number of bytes received from the network, that is less than the size of the response if it is compressed
+		 */
+		synchronized void add(long requestTimeToFirstByte, long requestDownload, long requestBytes, long requestReceived, long requestParse) {
+			++this.count;
+			this.timeToFirstByte += requestTimeToFirstByte;
+			this.download += requestDownload;
+			this.bytes += requestBytes;
+			this.received += requestReceived;
+			this.parse += Math.max(0, requestParse);
+		}
+
+		/**
+		 * Adds the time spent parsing a response that has been downloaded before being parsed
+		 */
+		synchronized void addParse(long requestParse) {
+			this.parse += Math.max(0, requestParse);
+		}
+
+		synchronized int getCount() {
+			return this.count;
+		}
+	}
+
+	/**
+	 * Metrics of a table (the times are in nanoseconds)
+	 */
+	static class Table {
+		String name;
+		String serviceNowTable;
+		long urlBuild = 0;
+		Requests requests = new Requests();
+
+		long records = 0;
+		long map = 0;
+		long apply = 0;
+
+		// processing of the records, from the first one to the last one
+		long startTime = 0;
+		long endTime = 0;
+		boolean processing = false;
+		Object event = null;
+
+		int created = 0;
+		int updated = 0;
+		int removed = 0;
+		int referenceCalls = 0;
+		long cacheHits = 0;
+		long cacheMisses = 0;
+
+		Table(String theName, String theServiceNowTable) {
+			this.name = theName;
+			this.serviceNowTable = theServiceNowTable;
+		}
+
+		/**
+		 * Times each record of the table: the mapping of the record on the import thread, and the application of its change to the model
+		 * (on the UI thread when the model is changed in batches)
+		 */
+		MyModelBatch.RecordMapper timed(final MyModelBatch.RecordMapper mapper) {
+			return new MyModelBatch.RecordMapper() {
+				@Override
+				public void start(int count) throws MyException {
+					mapper.start(count);
+				}
+
+				@Override
+				public MyModelBatch.RecordChange map(JsonNode jsonNode) throws MyException, IOException {
+					long mapStart = System.nanoTime();
+					final MyModelBatch.RecordChange change;
+					try {
+						change = mapper.map(jsonNode);
+					} finally {
+						Table.this.map += System.nanoTime() - mapStart;
+					}
+					if ( (change == null) || (change == MyModelBatch.STOP) )
+						return change;
+					return new MyModelBatch.RecordChange() {
+						@Override
+						public boolean apply() throws MyException, IOException {
+							long applyStart = System.nanoTime();
+							try {
+								return change.apply();
+							} finally {
+								Table.this.apply += System.nanoTime() - applyStart;
+							}
+						}
+					};
+				}
+
+				@Override
+				public void end() throws MyException, IOException {
+					mapper.end();
+				}
+			};
+		}
+
+		/**
+		 * Called before the first record of the table is processed<br>
+		 * The counters of the importer are subtracted, and added back by endProcessing(), so that the table only counts its own changes.
+		 */
+		void startProcessing(MyImporter importer) {
+			this.processing = true;
+			this.startTime = System.nanoTime();
+			this.event = MyFlightRecorder.beginTable();
+			this.created -= importer.created;
+			this.updated -= importer.updated;
+			this.removed -= importer.removed;
+			this.referenceCalls -= importer.metrics.getReferenceCalls();
+			this.cacheHits -= importer.referenceLinkCache.hits;
+			this.cacheMisses -= importer.referenceLinkCache.misses;
+		}
+
+		/**
+		 * Called after the last record of the table has been processed, or at the end of the phase if the processing has been interrupted
+		 */
+		void endProcessing(MyImporter importer) {
+			if ( !this.processing )
+				return;
+			this.processing = false;
+			this.endTime = System.nanoTime();
+			this.created += importer.created;
+			this.updated += importer.updated;
+			this.removed += importer.removed;
+			this.referenceCalls += importer.metrics.getReferenceCalls();
+			this.cacheHits += importer.referenceLinkCache.hits;
+			this.cacheMisses += importer.referenceLinkCache.misses;
+			MyFlightRecorder.endTable(this.event, importer.metrics.getPhaseName(), this.name, this.serviceNowTable, this.records, this.created, this.updated, this.removed);
+			this.event = null;
+		}
+
+		long getRowsPerSecond() {
+			long duration = this.endTime - this.startTime;
+			return (duration <= 0) ? 0 : this.records * 1000000000L / duration;
+		}
+	}
+
+	/**
+	 * Metrics of a phase of the import
+	 */
+	static class Phase {
+		String name;
+		long startTime = System.nanoTime();
+		long endTime = 0;
+		Map<String, Table> tables = new LinkedHashMap<String, Table>();
+		Requests references = new Requests();
+		Object event = MyFlightRecorder.beginPhase();
+
+		int created = 0;
+		int updated = 0;
+		int removed = 0;
+		long cacheHits = 0;
+		long cacheMisses = 0;
+		long cacheEvictions = 0;
+
+		Phase(String theName) {
+			this.name = theName;
+		}
+
+		long getRecords() {
+			long records = 0;
+			for ( Table table: this.tables.values() )
+				records += table.records;
+			return records;
+		}
+
+		long getRowsPerSecond() {
+			long duration = this.endTime - this.startTime;
+			return (duration <= 0) ? 0 : getRecords() * 1000000000L / duration;
+		}
+	}
+
+	public MyImportMetrics(String theModelName, String theIniFilename) {
+		this.modelName = theModelName;
+		this.iniFilename = theIniFilename;
+	}
+
+	public synchronized Phase startPhase(String name) {
+		Phase phase = new Phase(name);
+		this.phases.add(phase);
+		this.currentPhase = phase;
+		return phase;
+	}
+
+	/**
+	 * Ends the current phase, with the counters of the importer and the statistics of its reference link cache
+	 */
+	public synchronized void endPhase(MyImporter importer) {
+		Phase phase = this.currentPhase;
+		if ( phase == null )
+			return;
+		for ( Table table: phase.tables.values() )
+			table.endProcessing(importer);
+		phase.endTime = System.nanoTime();
+		phase.created = importer.created;
+		phase.updated = importer.updated;
+		phase.removed = importer.removed;
+		phase.cacheHits = importer.referenceLinkCache.hits;
+		phase.cacheMisses = importer.referenceLinkCache.misses;
+		phase.cacheEvictions = importer.referenceLinkCache.evictions;
+		MyFlightRecorder.endPhase(phase.event, phase.name);
+		phase.event = null;
+		this.currentPhase = null;
+	}
+
+	/**
+	 * Adds a table to the current phase
+	 */
+	public synchronized Table addTable(String name, String serviceNowTable) {
+		Table table = new Table(name, serviceNowTable);
+		if ( this.currentPhase != null )
+			this.currentPhase.tables.put(name, table);
+		return table;
+	}
+
+	/**
+	 * @return the requests of the table of the current phase, or the phase's references if there is no table with that name (null outside of the phases)
+	 */
+	public synchronized Requests getRequests(String what) {
+		Phase phase = this.currentPhase;
+		if ( phase == null )
+			return null;
+		Table table = phase.tables.get(what);
+		return (table == null) ? phase.references : table.requests;
+	}
+
+	/**
+	 * @return the name of the current phase, or null outside of the phases
+	 */
+	public String getPhaseName() {
+		Phase phase = this.currentPhase;
+		return (phase == null) ? null : phase.name;
+	}
+
+	/**
+	 * @return the number of requests sent for the references during the current phase
+	 */
+	public int getReferenceCalls() {
+		Phase phase = this.currentPhase;
+		return (phase == null) ? 0 : phase.references.getCount();
+	}
+
+	public synchronized void end(boolean isSuccess) {
+		this.endTime = System.currentTimeMillis();
+		this.success = isSuccess;
+	}
+
+	static long toMillis(long nanos) {
+		return nanos / 1000000L;
+	}
+
+	/**
+	 * Saves the metrics as a JSON document
+	 */
+	public synchronized void save(File file) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		try ( JsonGenerator json = jsonFactory.createJsonGenerator(file, JsonEncoding.UTF8) ) {
+			json.useDefaultPrettyPrinter();
+			json.writeStartObject();
+			json.writeStringField("plugin_version", MyImporter.SNowPluginVersion);
+			json.writeStringField("model", this.modelName);
+			json.writeStringField("ini_file", this.iniFilename);
+			json.writeStringField("start", dateFormat.format(new Date(this.startTime)));
+			json.writeStringField("end", dateFormat.format(new Date(this.endTime)));
+			json.writeNumberField("duration_ms", this.endTime - this.startTime);
+			json.writeBooleanField("success", this.success);
+			json.writeArrayFieldStart("phases");
+			for ( Phase phase: this.phases ) {
+				json.writeStartObject();
+				json.writeStringField("name", phase.name);
+				json.writeNumberField("duration_ms", toMillis(phase.endTime - phase.startTime));
+				json.writeNumberField("records", phase.getRecords());
+				json.writeNumberField("rows_per_second", phase.getRowsPerSecond());
+				json.writeNumberField("created", phase.created);
+				json.writeNumberField("updated", phase.updated);
+				json.writeNumberField("removed", phase.removed);
+				json.writeObjectFieldStart("reference_cache");
+				json.writeNumberField("hits", phase.cacheHits);
+				json.writeNumberField("misses", phase.cacheMisses);
+				json.writeNumberField("evictions", phase.cacheEvictions);
+				json.writeEndObject();
+				json.writeFieldName("reference_requests");
+				writeRequests(json, phase.references);
+				json.writeArrayFieldStart("tables");
+				for ( Table table: phase.tables.values() ) {
+					json.writeStartObject();
+					json.writeStringField("name", table.name);
+					json.writeStringField("servicenow_table", table.serviceNowTable);
+					json.writeNumberField("url_build_ms", toMillis(table.urlBuild));
+					json.writeFieldName("requests");
+					writeRequests(json, table.requests);
+					json.writeNumberField("map_ms", toMillis(table.map));
+					json.writeNumberField("apply_ms", toMillis(table.apply));
+					json.writeNumberField("records", table.records);
+					json.writeNumberField("rows_per_second", table.getRowsPerSecond());
+					json.writeNumberField("created", table.created);
+					json.writeNumberField("updated", table.updated);
+					json.writeNumberField("removed", table.removed);
+					json.writeNumberField("reference_calls", table.referenceCalls);
+					json.writeNumberField("reference_cache_hits", table.cacheHits);
+					json.writeNumberField("reference_cache_misses", table.cacheMisses);
+					json.writeEndObject();
+				}
+				json.writeEndArray();
+				json.writeEndObject();
+			}
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+	}
+
+	static void writeRequests(JsonGenerator json, Requests requests) throws IOException {
+		synchronized ( requests ) {
+			json.writeStartObject();
+			json.writeNumberField("count", requests.count);
+			json.writeNumberField("time_to_first_byte_ms", toMillis(requests.timeToFirstByte));
+			json.writeNumberField("download_ms", toMillis(requests.download));
+			json.writeNumberField("bytes", requests.bytes);
+			json.writeNumberField("bytes_received", requests.received);
+			json.writeNumberField("parse_ms", toMillis(requests.parse));
+			json.writeEndObject();
+		}
+	}
+
+	/**
+	 * @return a human readable summary of the metrics, one line per phase and per table
+	 */
+	public synchronized String getSummary() {
+		StringBuilder summary = new StringBuilder();
+		summary.append("Import ").append(this.success ? "done" : "failed").append(" in ").append((this.endTime - this.startTime) / 1000.0).append(" s.");
+		for ( Phase phase: this.phases ) {
+			summary.append("\n").append(phase.name).append(": ").append(phase.getRecords()).append(" records in ").append(toMillis(phase.endTime - phase.startTime)).append(" ms (")
+				.append(phase.getRowsPerSecond()).append(" rows/s), ").append(phase.created).append(" created, ").append(phase.updated).append(" updated, ").append(phase.removed).append(" removed");
+			if ( phase.references.count != 0 || phase.cacheHits != 0 || phase.cacheMisses != 0 )
+				summary.append(", ").append(phase.references.count).append(" reference requests, ").append(phase.cacheHits).append(" reference cache hits");
+			for ( Table table: phase.tables.values() ) {
+				Requests requests = table.requests;
+				summary.append("\n   ").append(table.name).append(": ").append(table.records).append(" records (").append(table.getRowsPerSecond()).append(" rows/s), ")
+					.append(requests.count).append(" requests, ").append(requests.bytes / 1024).append(" KB (").append(requests.received / 1024).append(" KB received), first byte ").append(toMillis(requests.timeToFirstByte))
+					.append(" ms, download ").append(toMillis(requests.download)).append(" ms, parse ").append(toMillis(requests.parse))
+					.append(" ms, map ").append(toMillis(table.map)).append(" ms, apply ").append(toMillis(table.apply)).append(" ms");
+			}
+		}
+		return summary.toString();
+	}
+}
@@ -0,0 +1,134 @@
+package org.archicontribs.servicenow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Index of the INI file properties by dotted segments<br>
+ * <br>
+ * The properties are organised as a tree whose branches are the segments of their keys: archi.relations.*.property.name is found under
+ * archi, then relations, then *, then property, then name. The properties that share a prefix (all the archi.elements.&lt;keyword&gt; keys,
+ * all the properties of a relation type, ...) are then got by walking down the prefix instead of scanning and splitting all the keys.<br>
+ * <br>
+ * The index is built from a snapshot of the properties: it must be built again when they are modified (cf. MySortedProperties.getIndex()).
+ */
+public class MyIniIndex {
+	static class Node {
+		String value = null;
+		TreeMap<String, Node> children = null;
+
+		Node getChild(String segment) {
+			return (this.children == null) ? null : this.children.get(segment);
+		}
+	}
+
+	Node root = new Node();
+
+	public MyIniIndex(Properties properties) {
+		for ( String key: properties.stringPropertyNames() ) {
+			Node node = this.root;
+			int start = 0;
+			int dot;
+			do {
+				dot = key.indexOf('.', start);
+				String segment = (dot == -1) ? key.substring(start) : key.substring(start, dot);
+				if ( node.children == null )
+					node.children = new TreeMap<String, Node>();
+				Node child = node.children.get(segment);
+				if ( child == null ) {
+					child = new Node();
+					node.children.put(segment, child);
+				}
+				node = child;
+				start = dot + 1;
+			} while ( dot != -1 );
+			node.value = properties.getProperty(key);
+		}
+	}
+
+	/**
+	 * @return the node of the given dotted key, or null if no property starts with this key
+	 */
+	Node getNode(String key) {
+		Node node = this.root;
+		int start = 0;
+		int dot;
+		do {
+			dot = key.indexOf('.', start);
+			node = node.getChild((dot == -1) ? key.substring(start) : key.substring(start, dot));
+			if ( node == null )
+				return null;
+			start = dot + 1;
+		} while ( dot != -1 );
+		return node;
+	}
+
+	/**
+	 * @return the value of the property, or null if it does not exist
+	 */
+	public String get(String key) {
+		Node node = getNode(key);
+		return (node == null) ? null : node.value;
+	}
+
+	/**
+	 * @return true if there are properties under the prefix (archi.elements for instance)
+	 */
+	public boolean hasKeys(String prefix) {
+		Node node = getNode(prefix);
+		return (node != null) && (node.children != null);
+	}
+
+	/**
+	 * @return the keys of the properties under the prefix, whatever their depth, sorted
+	 */
+	public List<String> getKeys(String prefix) {
+		List<String> keys = new ArrayList<String>();
+		Node node = getNode(prefix);
+		if ( node != null )
+			addKeys(node, new StringBuilder(prefix), keys);
+		return keys;
+	}
+
+	void addKeys(Node node, StringBuilder key, List<String> keys) {
+		if ( node.children == null )
+			return;
+		int length = key.length();
+		for ( Map.Entry<String, Node> child: node.children.entrySet() ) {
+			key.append('.').append(child.getKey());
+			if ( child.getValue().value != null )
+				keys.add(key.toString());
+			addKeys(child.getValue(), key, keys);
+			key.setLength(length);
+		}
+	}
+
+	/**
+	 * @return the segments that directly follow the prefix, sorted (the keywords of archi.elements for instance)
+	 */
+	public List<String> getChildren(String prefix) {
+		Node node = getNode(prefix);
+		if ( (node == null) || (node.children == null) )
+			return Collections.emptyList();
+		return new ArrayList<String>(node.children.keySet());
+	}
+
+	/**
+	 * @return the values of the properties that directly follow the prefix, by segment, sorted (the properties of archi.elements.*.property for instance)
+	 */
+	public TreeMap<String, String> getValues(String prefix) {
+		TreeMap<String, String> values = new TreeMap<String, String>();
+		Node node = getNode(prefix);
+		if ( (node != null) && (node.children != null) ) {
+			for ( Map.Entry<String, Node> child: node.children.entrySet() ) {
+				if ( child.getValue().value != null )
+					values.put(child.getKey(), child.getValue().value);
+			}
+		}
+		return values;
+	}
+}
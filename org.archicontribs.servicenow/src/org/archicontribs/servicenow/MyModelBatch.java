@@ -0,0 +1,256 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+
+import com.archimatetool.editor.model.IEditorModelManager;
+
+/**
+ * Groups the changes made to the model during a phase of the import<br>
+ * <br>
+ * Every change made to the model fires an EMF notification, to which Archi's model tree reacts immediately. Between begin() and end(), the
+ * model tree is told to ignore these notifications (the same way Archi does when it executes a compound command), and it is refreshed once
+ * when end() is called.<br>
+ * The batches may be nested, only the outermost one refreshes the model tree.<br>
+ * <br>
+ * When the import does not run on the UI thread, an executor that runs the tasks synchronously on the UI thread must be set: all the changes
+ * to the model are then made through it. The records are mapped on the import thread, and only the resulting changes are handed to the UI
+ * thread, by batches that do not keep it busy for more than 100 ms.<br>
+ * <br>
+ * The batches and the slices of records applied on the UI thread are recorded as flight recorder events (cf. MyFlightRecorder).
+ */
+public class MyModelBatch {
+	// maximum time spent on the UI thread at once, in milliseconds, and maximum number of records waiting for the UI thread
+	static final long TIME_SLICE = 100;
+	static final int BUFFER_SIZE = 1000;
+
+	boolean enabled;
+	Logger logger = null;
+	Executor executor = null;
+
+	int depth = 0;
+	long startTime = 0;
+	Object event = null;
+
+	public MyModelBatch(boolean isEnabled) {
+		this.enabled = isEnabled;
+	}
+
+	public void setLogger(Logger log) {
+		this.logger = log;
+	}
+
+	/**
+	 * Sets the executor that runs the tasks synchronously on the UI thread (null to run them on the calling thread)
+	 */
+	public void setExecutor(Executor uiExecutor) {
+		this.executor = uiExecutor;
+	}
+
+	public void begin() {
+		if ( !this.enabled || (this.depth++ != 0) )
+			return;
+
+		this.startTime = System.currentTimeMillis();
+		this.event = MyFlightRecorder.beginModelBatch();
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				IEditorModelManager.INSTANCE.firePropertyChange(MyModelBatch.this, IEditorModelManager.PROPERTY_ECORE_EVENTS_START, false, true);
+			}
+		});
+	}
+
+	public void end() {
+		if ( !this.enabled || (--this.depth != 0) )
+			return;
+
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				IEditorModelManager.INSTANCE.firePropertyChange(MyModelBatch.this, IEditorModelManager.PROPERTY_ECORE_EVENTS_END, false, true);
+			}
+		});
+		MyFlightRecorder.endModelBatch(this.event);
+		this.event = null;
+		if ( this.logger != null ) this.logger.debug("   Model changes applied in one batch in " + (System.currentTimeMillis() - this.startTime) + " ms.");
+	}
+
+	/**
+	 * Change to the model
+	 */
+	public interface Change {
+		void apply() throws MyException, IOException;
+	}
+
+	/**
+	 * Applies a change to the model on the UI thread, and rethrows the exception it raised if any
+	 */
+	public void run(Change change) throws MyException, IOException {
+		Throwable[] error = new Throwable[1];
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					change.apply();
+				} catch (Throwable e) {
+					error[0] = e;
+				}
+			}
+		});
+
+		if ( error[0] instanceof MyException )
+			throw (MyException)error[0];
+		if ( error[0] instanceof IOException )
+			throw (IOException)error[0];
+		if ( error[0] instanceof RuntimeException )
+			throw (RuntimeException)error[0];
+		if ( error[0] instanceof Error )
+			throw (Error)error[0];
+	}
+
+	void execute(Runnable task) {
+		if ( this.executor == null )
+			task.run();
+		else
+			this.executor.execute(task);
+	}
+
+	/**
+	 * Change to the model made for a record
+	 */
+	public interface RecordChange {
+		/**
+		 * @return false to stop processing the records
+		 */
+		boolean apply() throws MyException, IOException;
+	}
+
+	/**
+	 * Maps the records to the changes to make to the model<br>
+	 * <br>
+	 * The records are mapped on the thread that reads them, so that getting their fields and following their reference links never blocks
+	 * the UI. Only the changes are made on the UI thread, as well as start() and end().
+	 */
+	public interface RecordMapper {
+		void start(int count) throws MyException;
+
+		/**
+		 * @return the change to make to the model for the record, or null if the record does not change the model
+		 */
+		RecordChange map(JsonNode jsonNode) throws MyException, IOException;
+
+		void end() throws MyException, IOException;
+	}
+
+	/**
+	 * Change that stops the processing of the records
+	 */
+	public static final RecordChange STOP = new RecordChange() {
+		@Override
+		public boolean apply() {
+			return false;
+		}
+	};
+
+	/**
+	 * Returns a handler that maps the records on the calling thread and makes the changes to the model on the UI thread<br>
+	 * <br>
+	 * The changes are kept until 100 ms have elapsed since the previous batch or until 1000 changes are waiting. Each batch is then applied
+	 * on the UI thread, for 100 ms at most at a time, so that the UI can process its events between two slices.
+	 */
+	public MyRecordHandler apply(RecordMapper mapper) {
+		if ( this.executor == null ) {
+			return new MyRecordHandler() {
+				@Override
+				public void start(int count) throws MyException {
+					mapper.start(count);
+				}
+
+				@Override
+				public boolean record(JsonNode jsonNode) throws MyException, IOException {
+					RecordChange change = mapper.map(jsonNode);
+					return (change == null) || change.apply();
+				}
+
+				@Override
+				public void end() throws MyException, IOException {
+					mapper.end();
+				}
+			};
+		}
+
+		return new MyRecordHandler() {
+			ArrayDeque<RecordChange> changes = new ArrayDeque<RecordChange>();
+			long nextFlush = System.currentTimeMillis() + TIME_SLICE;
+			boolean stopped = false;
+
+			@Override
+			public void start(int count) throws MyException {
+				try {
+					MyModelBatch.this.run(new Change() {
+						@Override
+						public void apply() throws MyException {
+							mapper.start(count);
+						}
+					});
+				} catch (IOException e) {
+					throw new MyException("Failed to start the processing of the records.", e);
+				}
+			}
+
+			@Override
+			public boolean record(JsonNode jsonNode) throws MyException, IOException {
+				RecordChange change = mapper.map(jsonNode);
+				if ( change != null )
+					this.changes.add(change);
+				if ( (this.changes.size() < BUFFER_SIZE) && (System.currentTimeMillis() < this.nextFlush) )
+					return true;
+				return flush();
+			}
+
+			@Override
+			public void end() throws MyException, IOException {
+				if ( flush() ) {
+					MyModelBatch.this.run(new Change() {
+						@Override
+						public void apply() throws MyException, IOException {
+							mapper.end();
+						}
+					});
+				}
+			}
+
+			boolean flush() throws MyException, IOException {
+				while ( !this.changes.isEmpty() && !this.stopped ) {
+					MyModelBatch.this.run(new Change() {
+						@Override
+						public void apply() throws MyException, IOException {
+							long sliceEnd = System.currentTimeMillis() + TIME_SLICE;
+							Object sliceEvent = MyFlightRecorder.beginModelApply();
+							int sliceRecords = 0;
+							try {
+								do {
+									++sliceRecords;
+									if ( !changes.poll().apply() ) {
+										stopped = true;
+										return;
+									}
+								} while ( !changes.isEmpty() && (System.currentTimeMillis() < sliceEnd) );
+							} finally {
+								MyFlightRecorder.endModelApply(sliceEvent, sliceRecords);
+							}
+						}
+					});
+				}
+				this.changes.clear();
+				this.nextFlush = System.currentTimeMillis() + TIME_SLICE;
+				return !this.stopped;
+			}
+		};
+	}
+}
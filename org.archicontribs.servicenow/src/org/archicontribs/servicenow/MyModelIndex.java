@@ -0,0 +1,79 @@
+package org.archicontribs.servicenow;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.eclipse.emf.ecore.EObject;
+
+import com.archimatetool.model.IArchimateElement;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IIdentifier;
+
+/**
+ * Index of the model's objects by ID<br>
+ * <br>
+ * It is built once, with a single traversal of the model, at the beginning of the import, and then kept up to date by the importer when objects
+ * are created or removed. This replaces ArchimateModelUtils.getObjectByID() that walks the whole model on each call.<br>
+ * As the index is complete, an ID that is not in the model (like the source or target of a relation that has not been imported) is resolved
+ * with a single hash lookup as well.
+ */
+public class MyModelIndex {
+	HashMap<String, EObject> objects = new HashMap<String, EObject>();
+
+	public MyModelIndex(IArchimateModel model) {
+		add(model);
+		for ( Iterator<EObject> i = model.eAllContents(); i.hasNext(); )
+			add(i.next());
+	}
+
+	/**
+	 * @return the object with the given ID, or null if there is no such object in the model
+	 */
+	public EObject getObjectByID(String id) {
+		if ( id == null )
+			return null;
+		return this.objects.get(id);
+	}
+
+	public void add(EObject eObject) {
+		if ( eObject instanceof IIdentifier ) {
+			String id = ((IIdentifier)eObject).getId();
+			if ( id != null )
+				this.objects.put(id, eObject);
+		}
+	}
+
+	/**
+	 * Removes the object and all the objects it contains from the index
+	 */
+	public void remove(EObject eObject) {
+		removeObject(eObject);
+		for ( Iterator<EObject> i = eObject.eAllContents(); i.hasNext(); )
+			removeObject(i.next());
+	}
+
+	void removeObject(EObject eObject) {
+		if ( eObject instanceof IIdentifier ) {
+			String id = ((IIdentifier)eObject).getId();
+			// we check that the ID is not used by another object
+			if ( (id != null) && (this.objects.get(id) == eObject) )
+				this.objects.remove(id);
+		}
+	}
+
+	/**
+	 * @return the IDs of the ArchiMate elements of the model, sorted
+	 */
+	public TreeSet<String> getElementIDs() {
+		TreeSet<String> ids = new TreeSet<String>();
+		for ( EObject eObject: this.objects.values() )
+			if ( eObject instanceof IArchimateElement )
+				ids.add(((IArchimateElement)eObject).getId());
+		return ids;
+	}
+
+	public int size() {
+		return this.objects.size();
+	}
+}
@@ -0,0 +1,69 @@
+package org.archicontribs.servicenow;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IProperties;
+import com.archimatetool.model.IProperty;
+
+/**
+ * Sets the properties of an element or a relation<br>
+ * <br>
+ * The concept's properties are indexed by key once, so that each property is found without scanning the whole list. The existing properties
+ * are updated in place (only if their value changes) and the missing ones are added all at once by apply().
+ */
+public class MyPropertySynchronizer {
+	IProperties concept;
+	Logger logger;
+
+	Map<String, IProperty> propertiesByKey = new HashMap<String, IProperty>();
+	List<IProperty> propertiesToAdd = new ArrayList<IProperty>();
+
+	public MyPropertySynchronizer(IProperties theConcept, Logger theLogger) {
+		this.concept = theConcept;
+		this.logger = theLogger;
+
+		// if several properties have got the same key, the first one is updated
+		for ( IProperty property: theConcept.getProperties() ) {
+			if ( !this.propertiesByKey.containsKey(property.getKey()) )
+				this.propertiesByKey.put(property.getKey(), property);
+		}
+	}
+
+	/**
+	 * Sets the value of a property, creating the property if it does not exist yet
+	 */
+	public void set(String key, String value) {
+		IProperty property = this.propertiesByKey.get(key);
+		if ( property != null ) {
+			if ( !value.equals(property.getValue()) ) {
+				if ( this.logger.isTraceEnabled() ) this.logger.trace("      Setting property " + key + " to " + value);
+				property.setValue(value);
+			}
+			return;
+		}
+
+		// if we're here, it means the property doesn't exists. Therefore, we create it.
+		if ( this.logger.isTraceEnabled() ) this.logger.trace("      Adding property " + key + " to " + value);
+		property = IArchimateFactory.eINSTANCE.createProperty();
+		property.setKey(key);
+		property.setValue(value);
+		this.propertiesByKey.put(key, property);
+		this.propertiesToAdd.add(property);
+	}
+
+	/**
+	 * Adds the new properties to the concept
+	 */
+	public void apply() {
+		if ( !this.propertiesToAdd.isEmpty() ) {
+			this.concept.getProperties().addAll(this.propertiesToAdd);
+			this.propertiesToAdd.clear();
+		}
+	}
+}
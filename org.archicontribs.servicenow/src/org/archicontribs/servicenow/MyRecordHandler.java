@@ -0,0 +1,28 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Receives the records of a ServiceNow "result" array one at a time, while they are being read from the webservice.
+ */
+public interface MyRecordHandler {
+	/**
+	 * Called once, before the first record, with the number of records announced by ServiceNow (X-Total-Count header)<br>
+	 * The count is -1 if ServiceNow did not provide it.
+	 */
+	void start(int count) throws MyException;
+
+	/**
+	 * Called for each record of the result array
+	 * @return false to stop reading the remaining records
+	 */
+	boolean record(JsonNode jsonNode) throws MyException, IOException;
+
+	/**
+	 * Called once, after the last record<br>
+	 * Not called if record() returned false or if an exception has been thrown.
+	 */
+	void end() throws MyException, IOException;
+}
@@ -0,0 +1,413 @@
+package org.archicontribs.servicenow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * Cache of the records got by following reference links, keyed by table and sys_id<br>
+ * <br>
+ * The cache is bounded: when it holds more than maxSize records, or when a table holds more than its quota, the least recently used records
+ * are evicted (and will be got again from ServiceNow if needed). Only the fields used by the reference paths of the mapping are kept in the
+ * records. The hits, misses and evictions are logged at the end of each phase.<br>
+ * <br>
+ * When a file is specified, the cache is loaded from the file at the beginning of the import and saved at the end of each phase, so that
+ * the next imports do not need to get the same records again. The records older than their table's TTL are revalidated by getting their
+ * sys_updated_on field: the ones that did not change are kept, the others are removed from the cache and will be got again if needed.<br>
+ * <br>
+ * The file is a gzipped JSON document: {"version":1,"entries":[{"key":...,"link":...,"fetched":...,"record":{...}}, ...]}
+ */
+public class MyReferenceCache {
+	static final int FILE_VERSION = 1;
+
+	// number of sys_ids revalidated by a single request
+	static final int REVALIDATION_CHUNK = 100;
+
+	// entries in least recently used first order, overall and by table (the same entries are in both)
+	LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(1024, 0.75f, true);
+	Map<String, LinkedHashMap<String, Entry>> tableEntries = new HashMap<String, LinkedHashMap<String, Entry>>();
+
+	// maximum number of records (zero or negative for no limit), overall and per table
+	int maxSize = 0;
+	Map<String, Integer> tableQuota = new HashMap<String, Integer>();
+
+	// fields kept in the records (all the fields if empty)
+	Set<String> usedFields = new HashSet<String>();
+
+	// statistics of the current phase
+	long hits = 0;
+	long misses = 0;
+	long evictions = 0;
+
+	File file = null;
+	long defaultTtl = 86400000L;			// milliseconds
+	Map<String, Long> tableTtl = new HashMap<String, Long>();
+	Logger logger = null;
+
+	public void setLogger(Logger log) {
+		this.logger = log;
+	}
+
+	/**
+	 * Sets the file where the cache is kept between two imports (null to keep the cache in memory only)
+	 */
+	public void setFile(File theFile) {
+		this.file = theFile;
+	}
+
+	public boolean isPersistent() {
+		return this.file != null;
+	}
+
+	/**
+	 * Sets the time to live of the records, in seconds
+	 * @param table table name, or null for the default TTL
+	 */
+	public void setTtl(String table, long seconds) {
+		if ( table == null )
+			this.defaultTtl = seconds * 1000L;
+		else
+			this.tableTtl.put(table, Long.valueOf(seconds * 1000L));
+	}
+
+	/**
+	 * Sets the maximum number of records kept in the cache (zero or negative for no limit)
+	 * @param table table name, or null for the overall limit
+	 */
+	public void setMaxSize(String table, int max) {
+		if ( table == null )
+			this.maxSize = max;
+		else
+			this.tableQuota.put(table, Integer.valueOf(max));
+	}
+
+	/**
+	 * Declares the reference paths (field#subfield[#subfield...]) used by the mapping, so that only their subfields are kept in the records
+	 */
+	public void addUsedFields(Collection<String> paths) {
+		for ( String path: paths ) {
+			String[] subFields = path.split("#");
+			for ( int i = 1; i < subFields.length; ++i )
+				this.usedFields.add(subFields[i]);
+		}
+		if ( !this.usedFields.isEmpty() ) {
+			this.usedFields.add("sys_id");
+			this.usedFields.add("sys_updated_on");
+		}
+	}
+
+	long getTtl(String table) {
+		Long ttl = this.tableTtl.get(table);
+		return ttl == null ? this.defaultTtl : ttl.longValue();
+	}
+
+	/**
+	 * Gets the key of a reference link: table/sys_id when the link is a ServiceNow table API link, else the link itself
+	 */
+	static String getKey(String link) {
+		Matcher m = MyReferenceResolver.linkPattern.matcher(link);
+		return m.matches() ? m.group(2) + "/" + m.group(3) : link;
+	}
+
+	static String getTable(String key) {
+		int slash = key.indexOf('/');
+		return slash == -1 ? "" : key.substring(0, slash);
+	}
+
+	/**
+	 * Gets a record from the cache, counting the hit or miss and marking the record as recently used
+	 */
+	public JsonNode get(String link) {
+		Entry entry = getEntry(getKey(link));
+		if ( entry == null ) {
+			++this.misses;
+			return null;
+		}
+		++this.hits;
+		return entry.record;
+	}
+
+	/**
+	 * Gets a record from the cache without counting it in the statistics<br>
+	 * The record is still marked as recently used, as the reference resolver only peeks at the records that are about to be used.
+	 */
+	public JsonNode peek(String link) {
+		Entry entry = getEntry(getKey(link));
+		return entry == null ? null : entry.record;
+	}
+
+	/**
+	 * Gets an entry and marks it as recently used, overall and in its table
+	 */
+	Entry getEntry(String key) {
+		Entry entry = this.entries.get(key);
+		if ( entry != null )
+			this.tableEntries.get(getTable(key)).get(key);
+		return entry;
+	}
+
+	public void put(String link, JsonNode record) {
+		add(link, System.currentTimeMillis(), record);
+	}
+
+	void add(String link, long fetched, JsonNode record) {
+		if ( !this.usedFields.isEmpty() && (record instanceof ObjectNode) )
+			((ObjectNode)record).retain(this.usedFields);
+
+		String key = getKey(link);
+		String table = getTable(key);
+		LinkedHashMap<String, Entry> entriesOfTable = this.tableEntries.get(table);
+		if ( entriesOfTable == null ) {
+			entriesOfTable = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+			this.tableEntries.put(table, entriesOfTable);
+		}
+		Entry entry = new Entry(link, fetched, record);
+		this.entries.put(key, entry);
+		entriesOfTable.put(key, entry);
+
+		// the least recently used records of the table are the first ones of its own entries
+		Integer quota = this.tableQuota.get(table);
+		if ( (quota != null) && (quota.intValue() > 0) ) {
+			for ( Iterator<String> i = entriesOfTable.keySet().iterator(); entriesOfTable.size() > quota.intValue(); ) {
+				String k = i.next();
+				i.remove();
+				this.entries.remove(k);
+				++this.evictions;
+			}
+		}
+
+		if ( this.maxSize > 0 ) {
+			for ( Iterator<String> i = this.entries.keySet().iterator(); this.entries.size() > this.maxSize; ) {
+				String k = i.next();
+				i.remove();
+				removed(k);
+				++this.evictions;
+			}
+		}
+	}
+
+	void remove(String key) {
+		if ( this.entries.remove(key) != null )
+			removed(key);
+	}
+
+	/**
+	 * Removes the record from its table's entries once it has been removed from the entries
+	 */
+	void removed(String key) {
+		LinkedHashMap<String, Entry> entriesOfTable = this.tableEntries.get(getTable(key));
+		if ( entriesOfTable != null )
+			entriesOfTable.remove(key);
+	}
+
+	int getTableSize(String table) {
+		LinkedHashMap<String, Entry> entriesOfTable = this.tableEntries.get(table);
+		return entriesOfTable == null ? 0 : entriesOfTable.size();
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Called at the end of each import phase: saves the cache if it is persistent, else empties it
+	 */
+	public void endPhase() {
+		long lookups = this.hits + this.misses;
+		if ( this.logger != null ) this.logger.info("Reference cache: " + this.hits + " hits, " + this.misses + " misses" + (lookups == 0 ? "" : " (" + (this.hits * 100 / lookups) + "% hit ratio)") + ", " + this.evictions + " evictions, " + this.entries.size() + " records kept.");
+		if ( this.logger != null && this.logger.isDebugEnabled() ) {
+			for ( Map.Entry<String, LinkedHashMap<String, Entry>> table: this.tableEntries.entrySet() ) {
+				if ( !table.getValue().isEmpty() )
+					this.logger.debug("   " + table.getKey() + ": " + table.getValue().size() + " records");
+			}
+		}
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+
+		if ( isPersistent() )
+			save();
+		else {
+			this.entries.clear();
+			this.tableEntries.clear();
+		}
+	}
+
+	/**
+	 * Loads the cache file if it exists<br>
+	 * If the file cannot be read, the error is logged and the cache remains empty.
+	 */
+	public void load() {
+		if ( !isPersistent() || !this.file.exists() )
+			return;
+
+		long start = System.currentTimeMillis();
+		try ( JsonParser jsonParser = MyConnection.jsonFactory.createJsonParser(new GZIPInputStream(new BufferedInputStream(new FileInputStream(this.file)))) ) {
+			JsonNode root = jsonParser.readValueAsTree();
+			if ( (root == null) || (root.path("version").asInt() != FILE_VERSION) ) {
+				if ( this.logger != null ) this.logger.warn("Ignoring reference cache file " + this.file + " as its version is not supported.");
+				return;
+			}
+			for ( JsonNode node: root.path("entries") ) {
+				String link = node.path("link").asText();
+				JsonNode record = node.get("record");
+				if ( MyUtils.isSet(link) && (record != null) )
+					add(link, node.path("fetched").asLong(), record);
+			}
+			if ( this.logger != null ) this.logger.debug("Loaded " + this.entries.size() + " records from reference cache file " + this.file + " in " + (System.currentTimeMillis() - start) + " ms.");
+		} catch (IOException err) {
+			if ( this.logger != null ) this.logger.error("Failed to read reference cache file " + this.file + ", ignoring it.", err);
+			this.entries.clear();
+			this.tableEntries.clear();
+		}
+		this.evictions = 0;
+	}
+
+	/**
+	 * Saves the cache in its file<br>
+	 * The file is written in a temporary file first, so that the previous file remains intact if the write fails.
+	 */
+	public void save() {
+		if ( !isPersistent() )
+			return;
+
+		File tmpFile = new File(this.file.getPath() + ".tmp");
+		try {
+			try ( JsonGenerator jsonGenerator = MyConnection.jsonFactory.createJsonGenerator(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) ) {
+				jsonGenerator.writeStartObject();
+				jsonGenerator.writeNumberField("version", FILE_VERSION);
+				jsonGenerator.writeArrayFieldStart("entries");
+				for ( Map.Entry<String, Entry> e: this.entries.entrySet() ) {
+					jsonGenerator.writeStartObject();
+					jsonGenerator.writeStringField("key", e.getKey());
+					jsonGenerator.writeStringField("link", e.getValue().link);
+					jsonGenerator.writeNumberField("fetched", e.getValue().fetched);
+					jsonGenerator.writeFieldName("record");
+					jsonGenerator.writeTree(e.getValue().record);
+					jsonGenerator.writeEndObject();
+				}
+				jsonGenerator.writeEndArray();
+				jsonGenerator.writeEndObject();
+			}
+			Files.move(tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			if ( this.logger != null ) this.logger.debug("Saved " + this.entries.size() + " records in reference cache file " + this.file);
+		} catch (IOException err) {
+			if ( this.logger != null ) this.logger.error("Failed to write reference cache file " + this.file, err);
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Revalidates the records that are older than their table's TTL<br>
+	 * Their sys_updated_on field is got from ServiceNow by chunks of sys_ids: the records that did not change are kept for another TTL, the others
+	 * (updated, deleted or without sys_updated_on) are removed from the cache.
+	 */
+	public void revalidate(MyConnection connection, String username, String password) {
+		long now = System.currentTimeMillis();
+
+		// base URL + table -> expired entries (keyed by sys_id)
+		Map<String, Map<String, Entry>> expired = new LinkedHashMap<String, Map<String, Entry>>();
+		for ( Iterator<Map.Entry<String, Entry>> i = this.entries.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, Entry> e = i.next();
+			if ( now - e.getValue().fetched < getTtl(getTable(e.getKey())) )
+				continue;
+			Matcher m = MyReferenceResolver.linkPattern.matcher(e.getValue().link);
+			if ( !m.matches() || (e.getValue().record.get("sys_updated_on") == null) ) {
+				i.remove();
+				removed(e.getKey());
+				continue;
+			}
+			String tableUrl = m.group(1) + m.group(2);
+			if ( !expired.containsKey(tableUrl) )
+				expired.put(tableUrl, new LinkedHashMap<String, Entry>());
+			expired.get(tableUrl).put(m.group(3), e.getValue());
+		}
+
+		if ( expired.isEmpty() )
+			return;
+
+		int kept = 0, removed = 0;
+		for ( Map.Entry<String, Map<String, Entry>> table: expired.entrySet() ) {
+			List<String> sysIds = new ArrayList<String>(table.getValue().keySet());
+			for ( int first = 0; first < sysIds.size(); first += REVALIDATION_CHUNK ) {
+				List<String> chunk = sysIds.subList(first, Math.min(first + REVALIDATION_CHUNK, sysIds.size()));
+				Map<String, String> updatedOn = new HashMap<String, String>();
+
+				StringBuilder urlBuilder = new StringBuilder(table.getKey());
+				urlBuilder.append("?sysparm_limit=");
+				urlBuilder.append(chunk.size());
+				urlBuilder.append("&sysparm_fields=sys_id,sys_updated_on");
+				urlBuilder.append("&sysparm_query=sys_idIN");
+				urlBuilder.append(String.join(",", chunk));
+				try {
+					connection.fetchRecords("sys_updated_on", urlBuilder.toString(), username, password, new MyRecordHandler() {
+						@Override
+						public void start(int count) {
+							// nothing to do
+						}
+
+						@Override
+						public boolean record(JsonNode jsonNode) {
+							updatedOn.put(jsonNode.path("sys_id").asText(), jsonNode.path("sys_updated_on").asText());
+							return true;
+						}
+
+						@Override
+						public void end() {
+							// nothing to do
+						}
+					});
+				} catch (MyException | IOException err) {
+					if ( this.logger != null ) this.logger.error("Failed to revalidate the cached records of " + table.getKey() + ", they will be got again.", err);
+				}
+
+				for ( String sysId: chunk ) {
+					Entry entry = table.getValue().get(sysId);
+					if ( entry.record.get("sys_updated_on").asText().equals(updatedOn.get(sysId)) ) {
+						entry.fetched = now;
+						++kept;
+					} else {
+						remove(getKey(entry.link));
+						++removed;
+					}
+				}
+			}
+		}
+		if ( this.logger != null ) this.logger.debug("Revalidated the reference cache: " + kept + " records unchanged, " + removed + " records removed.");
+	}
+
+	static class Entry {
+		String link;
+		long fetched;
+		JsonNode record;
+
+		Entry(String theLink, long theFetched, JsonNode theRecord) {
+			this.link = theLink;
+			this.fetched = theFetched;
+			this.record = theRecord;
+		}
+	}
+}
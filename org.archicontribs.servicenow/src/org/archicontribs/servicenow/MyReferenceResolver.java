@@ -0,0 +1,258 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * Resolves the reference links of a batch of records with a few requests instead of one request per link<br>
+ * <br>
+ * When a field is under the form field#subfield[#subfield...], getJsonField follows the link of the field's container to get the subfield.
+ * Instead of getting the referenced records one at a time, the resolver collects the sys_ids referenced by a batch of records, table by table,
+ * and gets them using sysparm_query=sys_idIN... with only the subfields that are needed. The records got are put in the reference link cache,
+ * under their link URL, before the batch is processed, so that getJsonField finds them there.<br>
+ * <br>
+ * If a batch request fails, the error is logged and the links are followed one by one as before.
+ */
+public class MyReferenceResolver {
+	// a reference link is https://<site>/api/now/table/<table>/<sys_id>
+	static final Pattern linkPattern = Pattern.compile("^(.*/api/now/table/)([^/?]+)/([^/?]+)$");
+
+	MyConnection connection;
+	String username;
+	String password;
+	MyReferenceCache cache;
+	int batchSize;
+	Logger logger = null;
+
+	/**
+	 * @param theCache reference link cache, shared with getJsonField
+	 * @param theBatchSize number of records resolved together, and maximum number of sys_ids per request (zero or negative to disable the batches)
+	 */
+	public MyReferenceResolver(MyConnection theConnection, String theUsername, String thePassword, MyReferenceCache theCache, int theBatchSize) {
+		this.connection = theConnection;
+		this.username = theUsername;
+		this.password = thePassword;
+		this.cache = theCache;
+		this.batchSize = theBatchSize;
+	}
+
+	public void setLogger(Logger log) {
+		this.logger = log;
+	}
+
+	/**
+	 * Adds the field to the list if it needs a reference link to be followed (field#subfield[#subfield...])
+	 */
+	static void addReferencePath(Collection<String> paths, String field) {
+		if ( !MyUtils.isSet(field) || field.startsWith("\"") || field.startsWith("${") || (field.indexOf('#') == -1) )
+			return;
+		String[] subFields = field.split("#");
+		// field#value is directly available in the container
+		if ( (subFields.length == 2) && subFields[1].equals("value") )
+			return;
+		paths.add(field);
+	}
+
+	/**
+	 * Returns a handler that buffers the records and resolves their reference links before handing them to the handler, batch after batch
+	 */
+	public MyRecordHandler batch(MyRecordHandler handler, Collection<String> paths) {
+		this.cache.addUsedFields(paths);
+		if ( (this.batchSize <= 0) || paths.isEmpty() )
+			return handler;
+
+		final List<String[]> splitPaths = new ArrayList<String[]>();
+		for ( String path: paths )
+			splitPaths.add(path.split("#"));
+
+		return new MyRecordHandler() {
+			List<JsonNode> buffer = new ArrayList<JsonNode>();
+
+			@Override
+			public void start(int count) throws MyException {
+				handler.start(count);
+			}
+
+			@Override
+			public boolean record(JsonNode jsonNode) throws MyException, IOException {
+				this.buffer.add(jsonNode);
+				if ( this.buffer.size() < MyReferenceResolver.this.batchSize )
+					return true;
+				return flush();
+			}
+
+			@Override
+			public void end() throws MyException, IOException {
+				if ( flush() )
+					handler.end();
+			}
+
+			boolean flush() throws MyException, IOException {
+				try {
+					resolve(this.buffer, splitPaths);
+					for ( JsonNode jsonNode: this.buffer ) {
+						if ( !handler.record(jsonNode) )
+							return false;
+					}
+					return true;
+				} finally {
+					this.buffer.clear();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Gets the records referenced by the records, level after level, and puts them in the cache
+	 */
+	void resolve(List<JsonNode> records, List<String[]> paths) {
+		// for each path, the nodes in which the next container is to be found
+		List<List<JsonNode>> nodes = new ArrayList<List<JsonNode>>();
+		for ( int p = 0; p < paths.size(); ++p )
+			nodes.add(records);
+
+		for ( int level = 0; ; ++level ) {
+			// table name -> sys_id -> link, and table name -> fields to get
+			Map<String, Map<String, String>> links = new LinkedHashMap<String, Map<String, String>>();
+			Map<String, Set<String>> fields = new HashMap<String, Set<String>>();
+			List<List<String>> pathLinks = new ArrayList<List<String>>();
+
+			for ( int p = 0; p < paths.size(); ++p ) {
+				String[] subFields = paths.get(p);
+				List<String> levelLinks = new ArrayList<String>();
+				pathLinks.add(levelLinks);
+				// the last subfield is read from the last container; when it is "value", the last container does not need to be followed
+				int followed = subFields[subFields.length-1].equals("value") ? subFields.length-2 : subFields.length-1;
+				if ( level >= followed )
+					continue;
+				for ( JsonNode node: nodes.get(p) ) {
+					JsonNode container = node.get(subFields[level]);
+					JsonNode link = (container == null || !container.isContainerNode()) ? null : container.get("link");
+					if ( link == null )
+						continue;
+					Matcher m = linkPattern.matcher(link.asText());
+					if ( !m.matches() )
+						continue;
+					String table = m.group(2);
+					if ( !links.containsKey(table) ) {
+						links.put(table, new LinkedHashMap<String, String>());
+						fields.put(table, new TreeSet<String>());
+					}
+					links.get(table).put(m.group(3), link.asText());
+					fields.get(table).add(subFields[level+1]);
+					levelLinks.add(link.asText());
+				}
+			}
+
+			if ( links.isEmpty() )
+				return;
+
+			for ( String table: links.keySet() )
+				get(table, links.get(table), fields.get(table));
+
+			// the referenced records are the nodes of the next level
+			for ( int p = 0; p < paths.size(); ++p ) {
+				List<JsonNode> nextNodes = new ArrayList<JsonNode>();
+				for ( String link: pathLinks.get(p) ) {
+					JsonNode node = this.cache.peek(link);
+					if ( node != null )
+						nextNodes.add(node);
+				}
+				nodes.set(p, nextNodes);
+			}
+		}
+	}
+
+	/**
+	 * Gets the records of a table that are not yet in the cache (or are in the cache without all the fields), by chunks of batchSize sys_ids
+	 */
+	void get(String table, Map<String, String> linksBySysId, Set<String> fields) {
+		List<String> sysIds = new ArrayList<String>();
+		for ( Map.Entry<String, String> entry: linksBySysId.entrySet() ) {
+			JsonNode cached = this.cache.peek(entry.getValue());
+			boolean complete = cached != null;
+			if ( complete ) {
+				for ( String field: fields ) {
+					if ( !cached.has(field) ) {
+						complete = false;
+						break;
+					}
+				}
+			}
+			if ( !complete )
+				sysIds.add(entry.getKey());
+		}
+
+		if ( sysIds.isEmpty() )
+			return;
+
+		Matcher m = linkPattern.matcher(linksBySysId.values().iterator().next());
+		if ( !m.matches() )
+			return;
+
+		// sys_updated_on allows to revalidate the records when they are kept in a persistent cache
+		StringBuilder fieldList = new StringBuilder("sys_id,sys_updated_on");
+		for ( String field: fields ) {
+			fieldList.append(",");
+			fieldList.append(field);
+		}
+
+		for ( int first = 0; first < sysIds.size(); first += this.batchSize ) {
+			List<String> chunk = sysIds.subList(first, Math.min(first + this.batchSize, sysIds.size()));
+
+			StringBuilder urlBuilder = new StringBuilder(m.group(1));
+			urlBuilder.append(table);
+			urlBuilder.append("?sysparm_limit=");
+			urlBuilder.append(chunk.size());
+			urlBuilder.append("&sysparm_fields=");
+			urlBuilder.append(fieldList);
+			urlBuilder.append("&sysparm_exclude_reference_link=false");
+			urlBuilder.append("&sysparm_query=sys_idIN");
+			urlBuilder.append(String.join(",", chunk));
+
+			if ( this.logger != null ) this.logger.trace("      Getting " + chunk.size() + " referenced records from table " + table);
+			try {
+				this.connection.fetchRecords(table, urlBuilder.toString(), this.username, this.password, new MyRecordHandler() {
+					@Override
+					public void start(int count) {
+						// nothing to do
+					}
+
+					@Override
+					public boolean record(JsonNode jsonNode) {
+						JsonNode sysId = jsonNode.get("sys_id");
+						String link = (sysId == null) ? null : linksBySysId.get(sysId.asText());
+						if ( link != null ) {
+							JsonNode cached = MyReferenceResolver.this.cache.peek(link);
+							if ( (cached instanceof ObjectNode) && (jsonNode instanceof ObjectNode) )
+								((ObjectNode)cached).putAll((ObjectNode)jsonNode);
+							else
+								MyReferenceResolver.this.cache.put(link, jsonNode);
+						}
+						return true;
+					}
+
+					@Override
+					public void end() {
+						// nothing to do
+					}
+				});
+			} catch (MyException | IOException err) {
+				if ( this.logger != null ) this.logger.error("Failed to get referenced records from table " + table + ", the reference links will be followed one by one.", err);
+			}
+		}
+	}
+}
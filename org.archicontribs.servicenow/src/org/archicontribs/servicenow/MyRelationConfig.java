@@ -0,0 +1,51 @@
+package org.archicontribs.servicenow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mapping of a ServiceNow relation type to an Archi relationship<br>
+ * <br>
+ * The archi.relations.&lt;type&gt;.xxx properties, or the archi.relations.*.xxx properties when they are not set for the type, are got from the
+ * INI file and analysed once per relation type, instead of being looked up again for each relation.
+ */
+public class MyRelationConfig {
+	String type;
+	MyExpression id;
+	MyExpression archiClass;
+	MyExpression source;
+	MyExpression target;
+	MyExpression importMode;
+	MyExpression folder;
+	MyExpression name;
+	MyExpression documentation;
+	// the properties that are set for this relation type, in the order of their names
+	Map<String, MyExpression> properties = new LinkedHashMap<String, MyExpression>();
+
+	/**
+	 * @param propertyNames names of all the properties that may be set on the relations (archi.relations.&lt;any type&gt;.property.xxx)
+	 */
+	public MyRelationConfig(MySortedProperties iniProperties, String relationType, Set<String> propertyNames) {
+		this.type = relationType;
+		this.id = compile(iniProperties.getString("archi.relations", relationType, "id", "sys_id"));
+		// the Archi class has no default value
+		this.archiClass = compile(iniProperties.getString("archi.relations."+relationType+".archi_class"));
+		this.source = compile(iniProperties.getString("archi.relations", relationType, "source", "child"));
+		this.target = compile(iniProperties.getString("archi.relations", relationType, "target", "parent"));
+		this.importMode = compile(iniProperties.getString("archi.relations", relationType, "import_mode", "full"));
+		String folderPath = iniProperties.getString("archi.relations", relationType, "folder", "/");
+		this.folder = (folderPath == null) ? null : MyExpression.compilePath(folderPath);
+		this.name = compile(iniProperties.getString("archi.relations", relationType, "name", "sys_class_name"));
+		this.documentation = compile(iniProperties.getString("archi.relations", relationType, "documentation", "short_description"));
+		for ( String propertyName: propertyNames ) {
+			MyExpression property = compile(iniProperties.getString("archi.relations", relationType, "property."+propertyName, null));
+			if ( property != null )
+				this.properties.put(propertyName, property);
+		}
+	}
+
+	static MyExpression compile(String expression) {
+		return (expression == null) ? null : MyExpression.compile(expression);
+	}
+}
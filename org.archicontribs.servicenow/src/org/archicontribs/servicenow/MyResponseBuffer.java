@@ -0,0 +1,140 @@
+package org.archicontribs.servicenow;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Response of the ServiceNow webservice, downloaded before being parsed<br>
+ * <br>
+ * The response is kept in memory as raw bytes up to the threshold. Bigger responses are written to a temporary file that is memory-mapped
+ * to be read, so that their size only uses the operating system's page cache, not the Java heap. The response may be read several times.<br>
+ * <br>
+ * The temporary file is deleted as soon as it is mapped, the mapping being released by the garbage collector once the buffer is not used
+ * anymore. The systems that cannot delete a mapped file (Windows) keep it in the directory given by the connection, which deletes it when it
+ * is closed (cf. MyConnection.close()).
+ */
+public class MyResponseBuffer {
+	// a MappedByteBuffer cannot exceed 2 GB, so big files are mapped by chunks
+	static final long CHUNK_SIZE = 1L << 30;
+	static final int READ_SIZE = 65536;
+
+	byte[] bytes = null;
+	List<ByteBuffer> chunks = null;
+	long size = 0;
+
+	/**
+	 * Reads the whole content
+	 * @param threshold size from which the content is written to a temporary file instead of being kept in memory
+	 * @param directory directory of the temporary file (null for the system's temporary directory)
+	 */
+	public MyResponseBuffer(InputStream content, int threshold, File directory) throws IOException {
+		byte[] data = new byte[Math.max(1, Math.min(threshold, READ_SIZE))];
+		int length = 0;
+		int nb;
+		while ( (nb = content.read(data, length, data.length - length)) != -1 ) {
+			length += nb;
+			if ( length == data.length ) {
+				if ( length >= threshold ) {
+					spill(data, length, content, directory);
+					return;
+				}
+				data = Arrays.copyOf(data, (int)Math.min(threshold, 2L * data.length));
+			}
+		}
+		this.bytes = data;
+		this.size = length;
+	}
+
+	/**
+	 * Writes the bytes already read and the rest of the content to a temporary file, and maps it
+	 */
+	void spill(byte[] data, int length, InputStream content, File directory) throws IOException {
+		File file = File.createTempFile("snow-import-", ".json", directory);
+		try {
+			try ( FileOutputStream output = new FileOutputStream(file) ) {
+				output.write(data, 0, length);
+				this.size = length;
+				byte[] buffer = new byte[READ_SIZE];
+				int nb;
+				while ( (nb = content.read(buffer)) != -1 ) {
+					output.write(buffer, 0, nb);
+					this.size += nb;
+				}
+			}
+
+			// the mapping remains valid once the channel is closed
+			this.chunks = new ArrayList<ByteBuffer>();
+			try ( RandomAccessFile input = new RandomAccessFile(file, "r");
+				  FileChannel channel = input.getChannel() ) {
+				for ( long position = 0; position < this.size; position += CHUNK_SIZE )
+					this.chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, this.size - position)));
+			}
+		} finally {
+			// the file is left to the connection if it cannot be deleted while it is mapped
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return the size of the response, in bytes
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * @return true if the response is in a temporary file, false if it is in memory
+	 */
+	public boolean isSpilled() {
+		return this.chunks != null;
+	}
+
+	/**
+	 * @return a new stream that reads the response from its start
+	 */
+	public InputStream getInputStream() {
+		if ( this.chunks == null )
+			return new ByteArrayInputStream(this.bytes, 0, (int)this.size);
+		return new InputStream() {
+			int chunk = 0;
+			ByteBuffer current = MyResponseBuffer.this.chunks.isEmpty() ? ByteBuffer.allocate(0) : MyResponseBuffer.this.chunks.get(0).duplicate();
+
+			/**
+			 * @return false if the end of the response has been reached
+			 */
+			boolean next() {
+				while ( !this.current.hasRemaining() ) {
+					if ( ++this.chunk >= MyResponseBuffer.this.chunks.size() )
+						return false;
+					this.current = MyResponseBuffer.this.chunks.get(this.chunk).duplicate();
+				}
+				return true;
+			}
+
+			@Override
+			public int read() {
+				return next() ? (this.current.get() & 0xff) : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if ( len == 0 )
+					return 0;
+				if ( !next() )
+					return -1;
+				int nb = Math.min(len, this.current.remaining());
+				this.current.get(b, off, nb);
+				return nb;
+			}
+		};
+	}
+}
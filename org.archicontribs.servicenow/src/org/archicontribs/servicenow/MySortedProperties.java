@@ -1,115 +1,185 @@
-package org.archicontribs.servicenow;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Enumeration;
-import java.util.List;
-import java.util.Properties;
-import java.util.Set;
-import java.util.TreeSet;
-
-import org.apache.log4j.Logger;
-
-public class MySortedProperties extends Properties {
-    private static final long serialVersionUID = -7764236508910777813L;
-    Logger logger = null;
-    
-    public MySortedProperties(Logger logger) {
-        super();
-        this.logger = logger;
-    }
-
-    @Override
-    @SuppressWarnings("unchecked")
-    public synchronized Enumeration<Object> keys() {
-        Set<?> set = keySet();
-        return (Enumeration<Object>) sortKeys((Set<String>) set);
-    }
-
-    static public Enumeration<?> sortKeys(Set<String> keySet) {
-        List<String> sortedList = new ArrayList<String>();
-        sortedList.addAll(keySet);
-        Collections.sort(sortedList);
-        return Collections.enumeration(sortedList);
-    }
-
-    @Override
-    public Set<String> stringPropertyNames() {
-        Set<String> tmpSet = new TreeSet<String>();
-        for (Object key : keySet()) {
-            tmpSet.add(key.toString());
-        }
-        return tmpSet;
-    }
-    
-	public String getString(String propertyName, String defaultValue, boolean hideValueInLogFile) {
-        String value = super.getProperty(propertyName);
-        
-        if ( value == null ) {
-            if ( defaultValue == null )
-            	debug("   property "+propertyName+" not found");
-            else
-            	debug("   property "+propertyName+" not found (defaulting to "+(hideValueInLogFile ? "@@@@@@@@@@" : defaultValue)+")");
-            return defaultValue;
-        }
-        
-        debug("   property "+propertyName+" = "+(hideValueInLogFile ? "@@@@@@@@@@" : value));
-        return value;
-    }
-    
-	public String getString(String propertyName, String defaultValue) {
-        return this.getString(propertyName, defaultValue, false);
-    }
-    
-	public String getString(String propertyName) {
-        return this.getString(propertyName, null, false);
-    }
-    
-    public Boolean getBoolean(String propertyName, Boolean defaultValue) {
-        String value = super.getProperty(propertyName);
-        
-        if ( value == null ) {
-            if ( defaultValue == null )
-            	debug("   property "+propertyName+" not found");
-            else
-            	debug("   property "+propertyName+" not found (defaulting to "+defaultValue+")");
-            return defaultValue;
-        }
-        
-        debug("   property "+propertyName+" = "+value);
-        return Boolean.valueOf(value);
-    }
-    
-    public String getBoolean(String propertyName) {
-        return this.getProperty(propertyName, null);
-    }
-    
-    public Integer getInt(String propertyName, Integer defaultValue) throws NumberFormatException {
-        String value = super.getProperty(propertyName);
-        
-        if ( value == null ) {
-            if ( defaultValue == null )
-            	debug("   property "+propertyName+" not found");
-            else
-            	debug("   property "+propertyName+" not found (defaulting to "+defaultValue+")");
-            return defaultValue;
-        }
-        
-        debug("   property "+propertyName+" = "+value);
-        return Integer.valueOf(value);
-    }
-    
-    public String getInt(String propertyName) {
-        return this.getProperty(propertyName, null);
-    }
-    
-    void debug(String debugString) {
-    	if ( this.logger != null )
-    		this.logger.debug(debugString);
-    }
-    
-    void trace(String traceString) {
-        if ( this.logger != null )
-            this.logger.trace(traceString);
-    }
-}
+package org.archicontribs.servicenow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Properties of the INI file, sorted by key<br>
+ * <br>
+ * The sorted keys and the index of the keys by dotted segments (cf. MyIniIndex) are computed the first time they are needed, and computed again
+ * only after the properties have been modified.
+ */
+public class MySortedProperties extends Properties {
+    private static final long serialVersionUID = -7764236508910777813L;
+    Logger logger = null;
+    transient Set<String> sortedNames = null;
+    transient MyIniIndex index = null;
+    
+    public MySortedProperties(Logger logger) {
+        super();
+        this.logger = logger;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Enumeration<Object> keys() {
+        Set<?> set = keySet();
+        return (Enumeration<Object>) sortKeys((Set<String>) set);
+    }
+
+    static public Enumeration<?> sortKeys(Set<String> keySet) {
+        List<String> sortedList = new ArrayList<String>();
+        sortedList.addAll(keySet);
+        Collections.sort(sortedList);
+        return Collections.enumeration(sortedList);
+    }
+
+    @Override
+    public synchronized Object put(Object key, Object value) {
+        this.sortedNames = null;
+        this.index = null;
+        return super.put(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        this.sortedNames = null;
+        this.index = null;
+        return super.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.sortedNames = null;
+        this.index = null;
+        super.clear();
+    }
+
+    /**
+     * @return the sorted keys of the properties (the set must not be modified)
+     */
+    @Override
+    public synchronized Set<String> stringPropertyNames() {
+        if ( this.sortedNames == null ) {
+            Set<String> tmpSet = new TreeSet<String>();
+            for (Object key : keySet()) {
+                tmpSet.add(key.toString());
+            }
+            this.sortedNames = Collections.unmodifiableSet(tmpSet);
+        }
+        return this.sortedNames;
+    }
+
+    /**
+     * @return the index of the properties by dotted segments
+     */
+    public synchronized MyIniIndex getIndex() {
+        if ( this.index == null )
+            this.index = new MyIniIndex(this);
+        return this.index;
+    }
+
+    /**
+     * Gets the property prefix.keyword.name, or the property prefix.*.name if the former does not exist
+     */
+    public String getString(String prefix, String keyword, String name, String defaultValue) {
+        MyIniIndex iniIndex = getIndex();
+        String value = iniIndex.get(prefix+"."+keyword+"."+name);
+        if ( value != null ) {
+            if ( isDebugEnabled() ) debug("   property "+prefix+"."+keyword+"."+name+" = "+value);
+            return value;
+        }
+        return getString(prefix+".*."+name, defaultValue);
+    }
+    
+	public String getString(String propertyName, String defaultValue, boolean hideValueInLogFile) {
+        String value = super.getProperty(propertyName);
+        
+        if ( value == null ) {
+            if ( isDebugEnabled() ) {
+                if ( defaultValue == null )
+                	debug("   property "+propertyName+" not found");
+                else
+                	debug("   property "+propertyName+" not found (defaulting to "+(hideValueInLogFile ? "@@@@@@@@@@" : defaultValue)+")");
+            }
+            return defaultValue;
+        }
+        
+        if ( isDebugEnabled() ) debug("   property "+propertyName+" = "+(hideValueInLogFile ? "@@@@@@@@@@" : value));
+        return value;
+    }
+    
+	public String getString(String propertyName, String defaultValue) {
+        return this.getString(propertyName, defaultValue, false);
+    }
+    
+	public String getString(String propertyName) {
+        return this.getString(propertyName, null, false);
+    }
+    
+    public Boolean getBoolean(String propertyName, Boolean defaultValue) {
+        String value = super.getProperty(propertyName);
+        
+        if ( value == null ) {
+            if ( isDebugEnabled() ) {
+                if ( defaultValue == null )
+                	debug("   property "+propertyName+" not found");
+                else
+                	debug("   property "+propertyName+" not found (defaulting to "+defaultValue+")");
+            }
+            return defaultValue;
+        }
+        
+        if ( isDebugEnabled() ) debug("   property "+propertyName+" = "+value);
+        return Boolean.valueOf(value);
+    }
+    
+    public String getBoolean(String propertyName) {
+        return this.getProperty(propertyName, null);
+    }
+    
+    public Integer getInt(String propertyName, Integer defaultValue) throws NumberFormatException {
+        String value = super.getProperty(propertyName);
+        
+        if ( value == null ) {
+            if ( isDebugEnabled() ) {
+                if ( defaultValue == null )
+                	debug("   property "+propertyName+" not found");
+                else
+                	debug("   property "+propertyName+" not found (defaulting to "+defaultValue+")");
+            }
+            return defaultValue;
+        }
+        
+        if ( isDebugEnabled() ) debug("   property "+propertyName+" = "+value);
+        return Integer.valueOf(value);
+    }
+    
+    public String getInt(String propertyName) {
+        return this.getProperty(propertyName, null);
+    }
+    
+    /**
+     * @return true if the debug messages are logged, so that they are only built when they are needed
+     */
+    boolean isDebugEnabled() {
+        return (this.logger != null) && this.logger.isDebugEnabled();
+    }
+
+    void debug(String debugString) {
+    	if ( this.logger != null )
+    		this.logger.debug(debugString);
+    }
+    
+    void trace(String traceString) {
+        if ( this.logger != null )
+            this.logger.trace(traceString);
+    }
+}
@@ -0,0 +1,209 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+
+/**
+ * Gets several ServiceNow tables and hands their records to their handler, table after table, in the order they have been added<br>
+ * <br>
+ * When several tables may be got in parallel, the tables are downloaded and parsed by a bounded pool of background threads while the
+ * records of the current table are processed. Each background table keeps at most QUEUE_CAPACITY records in memory until the calling thread
+ * reaches it.<br>
+ * <br>
+ * The handlers are always called from the calling thread, so they can safely update the model and the progress bar.
+ */
+public class MyTableFetcher {
+	// maximum number of records that a background table keeps in memory while waiting to be processed
+	static final int QUEUE_CAPACITY = 1000;
+
+	MyConnection connection;
+	String username;
+	String password;
+	int maxRecords;
+	int parallelTables;
+	Logger logger = null;
+
+	List<Table> tables = new ArrayList<Table>();
+
+	/**
+	 * @param maxRecords maximum number of records to get from each table (zero or negative for no limit)
+	 * @param parallelTables maximum number of tables that are downloaded at the same time
+	 */
+	public MyTableFetcher(MyConnection theConnection, String theUsername, String thePassword, int theMaxRecords, int theParallelTables) {
+		this.connection = theConnection;
+		this.username = theUsername;
+		this.password = thePassword;
+		this.maxRecords = theMaxRecords;
+		this.parallelTables = theParallelTables;
+	}
+
+	public void setLogger(Logger log) {
+		this.logger = log;
+	}
+
+	/**
+	 * Adds a table to get
+	 */
+	public void add(String what, String location, MyRecordHandler handler) {
+		this.tables.add(new Table(what, location, handler));
+	}
+
+	/**
+	 * Gets all the tables
+	 */
+	public void fetch(MyProgressBar progressBar) throws MyException, IOException {
+		if ( (this.parallelTables <= 1) || (this.tables.size() <= 1) ) {
+			for ( Table table: this.tables )
+				this.connection.getPagedRecords(table.what, table.location, this.username, this.password, this.maxRecords, table.handler);
+			return;
+		}
+
+		if ( this.logger != null ) this.logger.debug("   Getting " + this.tables.size() + " tables, " + this.parallelTables + " at a time ...");
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelTables, this.tables.size()));
+		try {
+			// the tables are submitted in order, so the table being processed has always been started before the ones waiting for it
+			for ( Table table: this.tables ) {
+				table.queue = new RecordQueue();
+				final Table t = table;
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						t.queue.produce(MyTableFetcher.this.connection, t, MyTableFetcher.this.username, MyTableFetcher.this.password, MyTableFetcher.this.maxRecords);
+					}
+				});
+			}
+
+			for ( Table table: this.tables ) {
+				if ( progressBar != null ) progressBar.setLabel("Getting " + table.what + " from ServiceNow webservice ...");
+				table.queue.drainTo(table.handler);
+			}
+		} finally {
+			for ( Table table: this.tables ) {
+				if ( table.queue != null ) {
+					table.queue.stop();
+					table.queue = null;
+				}
+			}
+			executor.shutdownNow();
+		}
+	}
+
+	static class Table {
+		String what;
+		String location;
+		MyRecordHandler handler;
+		RecordQueue queue = null;
+
+		Table(String theWhat, String theLocation, MyRecordHandler theHandler) {
+			this.what = theWhat;
+			this.location = theLocation;
+			this.handler = theHandler;
+		}
+	}
+
+	/**
+	 * Bounded queue between the thread that gets a table and the calling thread that processes its records<br>
+	 * <br>
+	 * The queue contains the records count (Integer), the records (JsonNode) and END once all the records have been received, then either DONE
+	 * or the exception that stopped the download.
+	 */
+	static class RecordQueue implements MyRecordHandler {
+		static final Object END = new Object();
+		static final Object DONE = new Object();
+
+		BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+		volatile boolean stopped = false;
+
+		/**
+		 * Gets the table and fills in the queue (called from a background thread)
+		 */
+		void produce(MyConnection connection, Table table, String username, String password, int maxRecords) {
+			Object last = DONE;
+			try {
+				connection.fetchPagedRecords(table.what, table.location, username, password, maxRecords, this);
+			} catch (Throwable e) {
+				last = e;
+			}
+			try {
+				if ( !this.stopped )
+					this.queue.put(last);
+			} catch (InterruptedException e) {
+				// the calling thread is not waiting for this table anymore
+			}
+		}
+
+		@Override
+		public void start(int count) throws MyException {
+			put(Integer.valueOf(count));
+		}
+
+		@Override
+		public boolean record(JsonNode jsonNode) throws MyException {
+			if ( this.stopped )
+				return false;
+			put(jsonNode);
+			return true;
+		}
+
+		@Override
+		public void end() throws MyException {
+			put(END);
+		}
+
+		void put(Object item) throws MyException {
+			try {
+				this.queue.put(item);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MyException("Interrupted while getting data from ServiceNow.", e);
+			}
+		}
+
+		/**
+		 * Hands the records to the handler as they are received (called from the calling thread)
+		 */
+		void drainTo(MyRecordHandler handler) throws MyException, IOException {
+			try {
+				while ( true ) {
+					Object item = this.queue.take();
+					if ( item == DONE )
+						return;
+					if ( item == END )
+						handler.end();
+					else if ( item instanceof Integer )
+						handler.start(((Integer)item).intValue());
+					else if ( item instanceof JsonNode ) {
+						if ( !handler.record((JsonNode)item) )
+							return;
+					} else if ( item instanceof MyException )
+						throw (MyException)item;
+					else if ( item instanceof IOException )
+						throw (IOException)item;
+					else
+						throw new MyException("Failed to get data from ServiceNow.", (Throwable)item);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MyException("Interrupted while waiting for ServiceNow.", e);
+			} finally {
+				stop();
+			}
+		}
+
+		/**
+		 * Stops the download and releases the records that have not been processed
+		 */
+		void stop() {
+			this.stopped = true;
+			this.queue.clear();
+		}
+	}
+}
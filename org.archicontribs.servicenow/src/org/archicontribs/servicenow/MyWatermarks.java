@@ -0,0 +1,134 @@
+package org.archicontribs.servicenow;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonNode;
+
+import com.archimatetool.model.IArchimateFactory;
+import com.archimatetool.model.IArchimateModel;
+import com.archimatetool.model.IProperty;
+
+/**
+ * High-water marks of the incremental import<br>
+ * <br>
+ * For each ServiceNow query (an elements table or the relations query), the highest sys_updated_on of the records imported is kept in a
+ * property of the model, so that the next import only gets the records that have been updated since. Keeping the watermarks in the model
+ * ensures that they always match the model's content: importing into another model, or not saving the model, gets all the records again.<br>
+ * <br>
+ * The watermarks are only moved forward by commit(), once a phase has been successfully completed, and only for the queries whose records have
+ * all been processed.
+ */
+public class MyWatermarks {
+	static final String PROPERTY_PREFIX = "SNowPlugin.watermark.";
+
+	IArchimateModel model;
+	Logger logger = null;
+
+	// watermarks of the queries of the current phase that have been completely processed
+	Map<String, String> pending = new HashMap<String, String>();
+
+	public MyWatermarks(IArchimateModel theModel) {
+		this.model = theModel;
+	}
+
+	public void setLogger(Logger log) {
+		this.logger = log;
+	}
+
+	IProperty getProperty(String key) {
+		for ( IProperty property: this.model.getProperties() ) {
+			if ( (PROPERTY_PREFIX + key).equals(property.getKey()) )
+				return property;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the watermark of a query (null if the query has never been imported in this model)
+	 */
+	public String get(String key) {
+		IProperty property = getProperty(key);
+		return (property == null || !MyUtils.isSet(property.getValue())) ? null : property.getValue();
+	}
+
+	/**
+	 * Gets the sysparm_query condition that selects the records updated since the watermark, URL encoded, or null if there is no watermark<br>
+	 * The records updated at the watermark itself are got again as other records may have been updated during the same second.
+	 */
+	public String getCondition(String key) {
+		String watermark = get(key);
+		if ( watermark == null )
+			return null;
+		try {
+			return "sys_updated_on>=" + URLEncoder.encode(watermark, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns a handler that hands the records to the handler and keeps the highest sys_updated_on they contain<br>
+	 * The watermark becomes pending once all the records have been processed.
+	 */
+	public MyRecordHandler track(String key, MyRecordHandler handler) {
+		return new MyRecordHandler() {
+			String highest = null;
+
+			@Override
+			public void start(int count) throws MyException {
+				handler.start(count);
+			}
+
+			@Override
+			public boolean record(JsonNode jsonNode) throws MyException, IOException {
+				JsonNode updatedOn = jsonNode.get("sys_updated_on");
+				if ( (updatedOn != null) && MyUtils.isSet(updatedOn.asText()) && ((this.highest == null) || (updatedOn.asText().compareTo(this.highest) > 0)) )
+					this.highest = updatedOn.asText();
+				return handler.record(jsonNode);
+			}
+
+			@Override
+			public void end() throws MyException, IOException {
+				handler.end();
+				if ( this.highest != null )
+					MyWatermarks.this.pending.put(key, this.highest);
+			}
+		};
+	}
+
+	/**
+	 * Moves the watermarks of the current phase forward in the model
+	 */
+	public void commit() {
+		for ( Map.Entry<String, String> entry: this.pending.entrySet() ) {
+			IProperty property = getProperty(entry.getKey());
+			if ( property == null ) {
+				property = IArchimateFactory.eINSTANCE.createProperty();
+				property.setKey(PROPERTY_PREFIX + entry.getKey());
+				this.model.getProperties().add(property);
+			}
+			if ( this.logger != null ) this.logger.debug("   Moving watermark of " + entry.getKey() + " from " + property.getValue() + " to " + entry.getValue());
+			property.setValue(entry.getValue());
+		}
+		this.pending.clear();
+	}
+
+	/**
+	 * Forgets the watermark of a query whose records have not all been got, so that it does not move forward
+	 */
+	public void forget(String key) {
+		this.pending.remove(key);
+	}
+
+	/**
+	 * Forgets the watermarks of the current phase, which has failed
+	 */
+	public void discard() {
+		this.pending.clear();
+	}
+}